@@ -5,21 +5,20 @@
 package org.service;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.api.BitcaskStore;
-import org.json.JSONObject;
-import org.store.BitCaskHandle;
+import org.schema.WeatherRecords;
 import org.store.BitcaskStoreImpl;
 
-import java.time.Duration;
-import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the base central station (driver code).
@@ -28,12 +27,25 @@ public class BaseCentralStation {
 
     private static final Logger logger;
     private static final BitcaskStore bitcaskStore;
-    private static final BitCaskHandle bitcaskHandle;
+    private static final List<BitcaskStore.OPTIONS> bitcaskOptions;
     private static final Properties kafkaProperties;
     private static final String KAFKA_TOPIC = "weather_data_topic";
     private static final String KAFKA_SERVER_CONFIGS = "localhost:9092";
     private static final String CONSUMER_GROUP_ID = "base_central_station";
-    private static final String BITCASK_ROOT_DIRECTORY = "bitcask_store";
+    private static final int MAX_POLL_RECORDS = 5000; // Large batches are safe as offsets follow durability
+    private static final String BITCASK_ROOT_DIRECTORY = "bitcask_store"; // Has a store per consumed partition
+    private static final String PARQUET_ROOT_DIRECTORY = "parquet_data"; // Has a directory per consumed partition
+    private static final long PARQUET_FILE_MAX_SIZE_BYTES = 16*1024*1024; // The size which rolls a parquet file over
+    private static final long PARQUET_FILE_MAX_AGE_MILLIS = 60_000; // The age which rolls a parquet file over
+    private static final String INDEXING_SPOOL_DIRECTORY = "indexing_spool"; // The parquet files waiting for import
+    private static final long PARQUET_COMPACTION_INTERVAL_MILLIS = 10*60_000; // How often the parquet files are compacted
+    private static final ParquetCompactor.Settings PARQUET_COMPACTION_SETTINGS = new ParquetCompactor.Settings(
+            5*60_000, // The minimum age of the compacted files (since they're closed)
+            250_000, // The maximum number of records of the files compacted at once (sorted in memory)
+            4, // The number of compacted files of a tier which are merged together
+            256*1024*1024, // The size which rolls a compacted file over
+            64*1024*1024, // The row group size of the compacted files
+            1024*1024); // The page size of the compacted files
 
     static {
         logger = LogManager.getLogger(BaseCentralStation.class);
@@ -41,29 +53,66 @@ public class BaseCentralStation {
         kafkaProperties = new Properties();
         kafkaProperties.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, KAFKA_SERVER_CONFIGS);
         kafkaProperties.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        kafkaProperties.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        kafkaProperties.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         kafkaProperties.put(ConsumerConfig.GROUP_ID_CONFIG, CONSUMER_GROUP_ID);
+        // The offsets are committed by the ingestion pipeline once the consumed records are durable
+        kafkaProperties.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        kafkaProperties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(MAX_POLL_RECORDS));
 
-        bitcaskStore = new BitcaskStoreImpl();
-        bitcaskHandle = bitcaskStore.open(BITCASK_ROOT_DIRECTORY,  List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        bitcaskStore = new BitcaskStoreImpl(BitcaskStoreImpl.DEFAULT_GROUP_COMMIT_MAX_ENTRIES,
+                BitcaskStoreImpl.DEFAULT_GROUP_COMMIT_WINDOW_MICROS, WeatherRecords.JSON_DICTIONARY);
+        bitcaskOptions = List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION,
+                BitcaskStore.OPTIONS.GROUP_COMMIT_OPTION, BitcaskStore.OPTIONS.COMPRESSION_OPTION);
     }
 
     public static void main(String[] args) {
-        try (KafkaConsumer<String, String> consumer = new KafkaConsumer<>(kafkaProperties)) {
-            consumer.subscribe(Collections.singletonList(KAFKA_TOPIC));
-            while (true) {
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(100));
-                for (ConsumerRecord<String, String> consumerRecord : records) {
-                    JSONObject response = new JSONObject(consumerRecord.value());
-                    logger.debug("A new weather message is received: " + response);
-
-                    // Stores the response in the bitcask store
-                    bitcaskStore.put(bitcaskHandle, String.valueOf(response.getLong("station_id")), response.toString());
-
-                    // Writes records to parquet file
-                    ParquetWriterManager.writeParquetRecord(response);
+        IndexingSpool indexingSpool
+                = new IndexingSpool(INDEXING_SPOOL_DIRECTORY, ElasticsearchManager::importDataToElasticsearch);
+        ScheduledExecutorService compactionScheduler = startParquetCompaction(indexingSpool);
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(kafkaProperties)) {
+            IngestionPipeline ingestionPipeline = new IngestionPipeline(consumer, bitcaskStore,
+                    BITCASK_ROOT_DIRECTORY, bitcaskOptions, PARQUET_ROOT_DIRECTORY,
+                    new ParquetWriterManager.RolloverPolicy(PARQUET_FILE_MAX_SIZE_BYTES, PARQUET_FILE_MAX_AGE_MILLIS),
+                    indexingSpool);
+            Thread mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                ingestionPipeline.stop();
+                try {
+                    mainThread.join(); // Waits for the pipeline to complete the consumed batches
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
+            }));
+            ingestionPipeline.run(KAFKA_TOPIC);
+        } finally {
+            try {
+                compactionScheduler.shutdownNow(); // An interrupted compaction is completed or discarded by the next one
+                compactionScheduler.awaitTermination(1, TimeUnit.MINUTES);
+                indexingSpool.close(); // The files which aren't imported yet are imported by the next run
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
+
+    /**
+     * Schedules the compaction of the closed parquet files which are imported to elasticsearch
+     * (each scheduled compaction runs until there's nothing left to compact).
+     */
+    private static ScheduledExecutorService startParquetCompaction(IndexingSpool indexingSpool) {
+        ParquetCompactor parquetCompactor
+                = new ParquetCompactor(PARQUET_ROOT_DIRECTORY, PARQUET_COMPACTION_SETTINGS, indexingSpool::isPending);
+        ScheduledExecutorService compactionScheduler
+                = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "parquet-compaction"));
+        compactionScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                int compactedFiles;
+                do compactedFiles = parquetCompactor.compact();
+                while (compactedFiles > 0 && ! Thread.currentThread().isInterrupted());
+            } catch (Exception e) {
+                logger.error("Couldn't compact the parquet files. [" + e + "]");
+            }
+        }, PARQUET_COMPACTION_INTERVAL_MILLIS, PARQUET_COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return compactionScheduler;
+    }
 }
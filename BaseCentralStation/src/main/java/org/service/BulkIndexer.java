@@ -0,0 +1,206 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams documents into an elasticsearch index using bulk requests which are bounded by their number of
+ * documents and size. Up to (max concurrent requests) bulk requests are in flight at once; adding documents
+ * blocks while all of them are in flight. Only the items which failed with a retryable status (too many
+ * requests or a server error) are retried with exponential backoff, a bulk request which failed as a whole
+ * (e.g. connection error) is retried entirely. The documents have deterministic IDs (the station ID, timestamp
+ * and sequence number, the key which the parquet compactor uses to drop duplicates) so retries and imports
+ * of the same records don't duplicate them, while the records of a restarted station (whose sequence numbers
+ * start over) don't overwrite each other. The indexers aren't thread-safe, each one is used by a single thread.
+ */
+public class BulkIndexer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(BulkIndexer.class);
+    private static final ScheduledExecutorService retryScheduler // Schedules the retries once their backoff elapses
+            = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bulk-indexer-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final RestHighLevelClient client;
+    private final String indexName;
+    private final Settings settings;
+    private final Semaphore inFlightRequests; // A permit is held by each bulk request until it's done (with retries)
+    private final AtomicLong indexedDocuments = new AtomicLong();
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final AtomicReference<String> lastFailure = new AtomicReference<>();
+    private BulkRequest bulkRequest = new BulkRequest();
+
+    public BulkIndexer(RestHighLevelClient client, String indexName, Settings settings) {
+        this.client = client;
+        this.indexName = indexName;
+        this.settings = settings;
+        this.inFlightRequests = new Semaphore(settings.maxConcurrentRequests());
+    }
+
+    /**
+     * Adds the given weather record (identified by its station ID, timestamp and sequence number) to the current
+     * bulk request, sending the request once it's full. The document's source is built directly from the record.
+     */
+    public void add(GenericRecord record) throws InterruptedException {
+        bulkRequest.add(new IndexRequest(indexName).id(getDocumentId(record)).source(toSource(record)));
+        if (bulkRequest.numberOfActions() >= settings.maxDocumentsPerRequest()
+                || bulkRequest.estimatedSizeInBytes() >= settings.maxBytesPerRequest())
+            sendBulkRequest();
+    }
+
+    /**
+     * Sends the current bulk request (if any) and waits for all the bulk requests (and their retries).
+     * Throws if some documents couldn't be indexed.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (bulkRequest.numberOfActions() > 0) sendBulkRequest();
+        inFlightRequests.acquire(settings.maxConcurrentRequests());
+        inFlightRequests.release(settings.maxConcurrentRequests());
+        if (failedDocuments.get() > 0)
+            throw new RuntimeException("Couldn't index (" + failedDocuments.get() + ") documents in ("
+                    + indexName + "): " + lastFailure.get());
+        logger.debug("Indexed (" + indexedDocuments.get() + ") documents in (" + indexName + ").");
+    }
+
+    /**
+     * Returns the number of documents which are indexed successfully.
+     */
+    public long getIndexedDocuments() {
+        return indexedDocuments.get();
+    }
+
+    /**
+     * Returns the ID of the document of the given weather record (Station_ID_Timestamp_Sequence_Number).
+     */
+    public static String getDocumentId(GenericRecord record) {
+        return record.get("Station_ID") + "_" + record.get("Timestamp") + "_" + record.get("Sequence_Number");
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Sends the current bulk request once a request slot is free, and starts a new bulk request.
+     */
+    private void sendBulkRequest() throws InterruptedException {
+        inFlightRequests.acquire();
+        BulkRequest request = bulkRequest;
+        bulkRequest = new BulkRequest();
+        execute(request, 0);
+    }
+
+    /**
+     * Executes the given bulk request asynchronously, retrying its failed items. The request's slot is
+     * released once all its items are indexed or failed permanently (including when the request can't
+     * even be sent, e.g. once the client is closed).
+     */
+    private void execute(BulkRequest request, int attempt) {
+        ActionListener<BulkResponse> listener = new ActionListener<>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                BulkRequest retryRequest = new BulkRequest();
+                List<DocWriteRequest<?>> requests = request.requests();
+                BulkItemResponse[] items = response.getItems();
+                for (int i = 0 ; i < items.length ; i++) {
+                    if (! items[i].isFailed()) indexedDocuments.incrementAndGet();
+                    else if (isRetryable(items[i].status()) && attempt < settings.maxRetries())
+                        retryRequest.add(requests.get(i));
+                    else fail(1, items[i].getFailureMessage());
+                }
+                if (retryRequest.numberOfActions() > 0) retry(retryRequest, attempt);
+                else inFlightRequests.release();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (attempt < settings.maxRetries()) retry(request, attempt);
+                else {
+                    fail(request.numberOfActions(), e.toString());
+                    inFlightRequests.release();
+                }
+            }
+        };
+        try {
+            client.bulkAsync(request, RequestOptions.DEFAULT, listener);
+        } catch (Exception e) { // The listener is never called
+            fail(request.numberOfActions(), e.toString());
+            inFlightRequests.release();
+        }
+    }
+
+    /**
+     * Schedules the given (failed) bulk request to be executed again after the backoff of its attempt.
+     */
+    private void retry(BulkRequest request, int attempt) {
+        long backoffMillis = settings.initialBackoffMillis() << attempt;
+        logger.debug("Retrying (" + request.numberOfActions() + ") documents in (" + backoffMillis + ") ms.");
+        retryScheduler.schedule(() -> execute(request, attempt + 1), backoffMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void fail(long documentCount, String failureMessage) {
+        failedDocuments.addAndGet(documentCount);
+        lastFailure.set(failureMessage);
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * Builds the JSON source of the given record from its fields.
+     */
+    private static XContentBuilder toSource(GenericRecord record) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+            for (Schema.Field field : record.getSchema().getFields()) {
+                Object value = record.get(field.pos());
+                builder.field(field.name(), (value instanceof CharSequence) ? value.toString() : value);
+            }
+            return builder.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Bounds the bulk requests (documents and size), the number of concurrent bulk requests
+     * and the retries of the failed documents (the backoff doubles with each attempt).
+     */
+    public record Settings(int maxDocumentsPerRequest, long maxBytesPerRequest, int maxConcurrentRequests,
+                           int maxRetries, long initialBackoffMillis) {}
+}
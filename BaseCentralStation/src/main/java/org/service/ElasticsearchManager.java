@@ -8,9 +8,6 @@ import org.apache.http.HttpHost;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.*;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.hadoop.ParquetReader;
@@ -33,6 +30,13 @@ public class ElasticsearchManager {
     private static final RestHighLevelClient elasticsearchClient;
     private static final String INDEX_NAME = "weather_data";
     private static final int ELASTICSEARCH_PORT_NUMBER = 9200;
+    private static final BulkIndexer.Settings BULK_INDEXER_SETTINGS = new BulkIndexer.Settings(
+            1000, // The maximum number of documents in a bulk request
+            5*1024*1024, // The maximum size in bytes of a bulk request
+            4, // The maximum number of concurrent bulk requests (per imported file)
+            5, // The maximum number of retries of a failed document
+            100); // The backoff in ms before the first retry (doubled with each retry)
+    private static volatile boolean isIndexInitialized; // The index is initialized by the first import
 
     static {
         logger = LogManager.getLogger(ElasticsearchManager.class);
@@ -40,38 +44,36 @@ public class ElasticsearchManager {
             (RestClient.builder(new HttpHost("localhost", ELASTICSEARCH_PORT_NUMBER)).build())
             .setApiCompatibilityMode(true)
             .build();
-        try {
-            initElasticsearchIndex();
-        }
-        catch (IOException e) {
-            logger.error("Couldn't create the (" + INDEX_NAME + ") index.");
-            throw new RuntimeException(e);
-        }
     }
 
     /**
-     * Imports the data of the given parquet file path to elasticsearch.
+     * Imports the data of the given parquet file path to elasticsearch. The records are streamed
+     * from the file into bounded bulk requests which are sent concurrently (see { @link BulkIndexer }).
+     * The index is initialized by the first import, so elasticsearch doesn't need to be up before.
      */
     public static void importDataToElasticsearch(String parquetFilePath) {
-        try {
-            // Create a Parquet reader
-            ParquetReader<GenericRecord> parquetReader = AvroParquetReader.<GenericRecord>builder
-                            (HadoopInputFile.fromPath(new Path(parquetFilePath), new Configuration()))
-                    .withDataModel(GenericData.get())
-                    .build();
-
-            // Create a bulk request for indexing
-            BulkRequest bulkRequest = new BulkRequest();
-
-            GenericRecord record;
-            while ((record = parquetReader.read()) != null) {
-                bulkRequest.add(new IndexRequest(INDEX_NAME).source(record.toString(), XContentType.JSON));
+        if (! isIndexInitialized) {
+            try {
+                initElasticsearchIndex();
+                isIndexInitialized = true;
+            } catch (IOException e) {
+                logger.error("Couldn't create the (" + INDEX_NAME + ") index.");
+                throw new RuntimeException(e);
             }
-            parquetReader.close();
-
-            BulkResponse bulkResponse = elasticsearchClient.bulk(bulkRequest, RequestOptions.DEFAULT);
-            if (! bulkResponse.hasFailures()) logger.debug("Data imported to elasticsearch successfully.");
-            else throw new RuntimeException(bulkResponse.buildFailureMessage());
+        }
+        try (ParquetReader<GenericRecord> parquetReader = AvroParquetReader.<GenericRecord>builder
+                        (HadoopInputFile.fromPath(new Path(parquetFilePath), new Configuration()))
+                .withDataModel(GenericData.get())
+                .build()) {
+            BulkIndexer bulkIndexer = new BulkIndexer(elasticsearchClient, INDEX_NAME, BULK_INDEXER_SETTINGS);
+            GenericRecord record;
+            while ((record = parquetReader.read()) != null) bulkIndexer.add(record);
+            bulkIndexer.close();
+            logger.debug("Data imported to elasticsearch successfully.");
+        }
+        catch (InterruptedException e) { // The spool is closing, the file is imported by the next run
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
         catch (Exception e) {
             logger.error("Couldn't import parquet file data to elasticsearch");
@@ -0,0 +1,39 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces files and directories to disk (fsync). A file is only durable once its data is forced and, when
+ * it's created or renamed, once the directory holding its entry is forced too.
+ */
+final class FileSync {
+
+    private FileSync() {}
+
+    /**
+     * Forces the given file (or directory) to disk, does nothing if it doesn't exist.
+     */
+    static void force(Path path) throws IOException {
+        if (! Files.exists(path)) return;
+        // Directories can only be opened for reading, which is enough to force them
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the given file to disk along with its directory (so its entry is durable).
+     */
+    static void forceWithDirectory(Path path) throws IOException {
+        force(path);
+        force(path.toAbsolutePath().getParent());
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Durable on-disk queue of the closed parquet files which wait to be imported to elasticsearch. Each spooled
+ * file has a marker file in the spool directory (holding the parquet file's path) which is written atomically
+ * and synced before the file is queued, and deleted once the file is imported (the markers left in the spool
+ * directory are the checkpoint of what isn't imported yet). A background worker imports the queued files one
+ * after the other; a failed import is retried with exponential backoff, so the ingestion continues at full
+ * speed while elasticsearch is slow or down and the spooled files are imported once it's back. A file which
+ * keeps failing while the other files are imported (e.g. rejected by elasticsearch or corrupted) is given up:
+ * its marker is moved to the dead letter directory. The markers which are left when the spool closes are
+ * queued again when it's opened.
+ */
+public class IndexingSpool implements AutoCloseable {
+
+    // Constants
+    private static final Logger logger = LogManager.getLogger(IndexingSpool.class);
+    private static final String MARKER_SUFFIX = ".pending";
+    private static final long INITIAL_BACKOFF_MILLIS = 1000; // The backoff before retrying a failed import
+    private static final long MAXIMUM_BACKOFF_MILLIS = 60_000; // The backoff is doubled up to this value
+    private static final int MAX_FAILED_ATTEMPTS = 5; // The failed imports of a file before it's given up
+    private static final String DEAD_LETTER_DIRECTORY = "dead_letters"; // Holds the markers of the given up files
+
+    private final Path spoolDirectory;
+    private final Consumer<String> importer; // Imports the given parquet file (throws on failure)
+    private final long initialBackoffMillis;
+    private final BlockingQueue<Path> markers = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean isOpen = true;
+
+    /**
+     * Opens the spool in the given directory (queuing the files which were spooled and not imported yet)
+     * and starts its worker which imports the files using the given importer.
+     */
+    public IndexingSpool(String spoolDirectory, Consumer<String> importer) {
+        this(spoolDirectory, importer, INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Opens the spool with the given backoff before retrying a failed import (for the tests).
+     */
+    IndexingSpool(String spoolDirectory, Consumer<String> importer, long initialBackoffMillis) {
+        this.spoolDirectory = Path.of(spoolDirectory);
+        this.importer = importer;
+        this.initialBackoffMillis = initialBackoffMillis;
+        try {
+            Files.createDirectories(this.spoolDirectory);
+            try (Stream<Path> files = Files.list(this.spoolDirectory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(MARKER_SUFFIX)).sorted().forEach(markers::add);
+            }
+        } catch (IOException e) {
+            logger.error("Couldn't open the indexing spool (" + spoolDirectory + ")");
+            throw new RuntimeException(e);
+        }
+        if (! markers.isEmpty()) logger.info("Resuming the import of (" + markers.size() + ") spooled parquet files.");
+        this.worker = new Thread(this::drain, "indexing-spool");
+        this.worker.start();
+    }
+
+    /**
+     * Spools the given (closed) parquet file, the file is durably queued once this call returns.
+     */
+    public void add(String parquetFilePath) {
+        String markerName = getMarkerName(parquetFilePath);
+        Path marker = spoolDirectory.resolve(markerName);
+        Path temporaryMarker = spoolDirectory.resolve(markerName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryMarker,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(parquetFilePath.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        } catch (IOException e) {
+            logger.error("Couldn't spool the parquet file (" + parquetFilePath + ")");
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(temporaryMarker, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileSync.force(spoolDirectory); // The renamed marker must survive a crash
+        } catch (IOException e) {
+            logger.error("Couldn't spool the parquet file (" + parquetFilePath + ")");
+            throw new RuntimeException(e);
+        }
+        markers.add(marker);
+    }
+
+    /**
+     * Returns true if the given parquet file is spooled and not imported yet.
+     */
+    public boolean isPending(String parquetFilePath) {
+        return Files.exists(spoolDirectory.resolve(getMarkerName(parquetFilePath)));
+    }
+
+    /**
+     * Returns the number of spooled files which aren't imported yet.
+     */
+    public int getPendingFileCount() {
+        return markers.size();
+    }
+
+    /**
+     * Stops the worker, interrupting the current import (if any). The files which aren't imported stay in
+     * the spool directory and are imported when the spool is opened again (the imports are idempotent).
+     */
+    @Override
+    public void close() throws InterruptedException {
+        isOpen = false;
+        worker.interrupt();
+        worker.join();
+        if (! markers.isEmpty()) logger.info("Closed the indexing spool with (" + markers.size() + ") pending files.");
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Returns the name of the marker of the given parquet file (its path with the separators replaced).
+     */
+    private static String getMarkerName(String parquetFilePath) {
+        return parquetFilePath.replaceAll("[/\\\\]", "_") + MARKER_SUFFIX;
+    }
+
+    /**
+     * Imports the queued files (in order) until the spool is closed. A failed import is queued again behind the
+     * other files (so a file which keeps failing doesn't hold the next ones back) after a backoff which doubles
+     * with each consecutive failure. A file which failed the maximum number of attempts while other files were
+     * imported (so elasticsearch is up and the failure is the file's own) is moved to the dead letter directory.
+     */
+    private void drain() {
+        long backoffMillis = initialBackoffMillis;
+        long importedFileCount = 0;
+        Map<Path, FailedImport> failedImports = new HashMap<>();
+        try {
+            while (isOpen) {
+                Path marker = markers.take();
+                if (importSpooledFile(marker)) {
+                    failedImports.remove(marker);
+                    importedFileCount++;
+                    backoffMillis = initialBackoffMillis;
+                    continue;
+                }
+                if (! isOpen || Thread.currentThread().isInterrupted()) {
+                    markers.add(marker); // Still pending (the marker is kept)
+                    return;
+                }
+                FailedImport failedImport = failedImports.merge(marker, new FailedImport(1, importedFileCount),
+                        (previous, ignored) -> new FailedImport(previous.attempts() + 1, previous.importedFileCount()));
+                if (failedImport.attempts() >= MAX_FAILED_ATTEMPTS && importedFileCount > failedImport.importedFileCount()) {
+                    failedImports.remove(marker);
+                    if (moveToDeadLetters(marker)) continue;
+                }
+                markers.add(marker);
+                logger.info("Retrying the import of (" + marker.getFileName() + ") in (" + backoffMillis + ") ms.");
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(MAXIMUM_BACKOFF_MILLIS, 2 * backoffMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves the given marker to the dead letter directory, so its file isn't imported anymore (its records stay
+     * in the parquet archive). Returns false if the marker couldn't be moved.
+     */
+    private boolean moveToDeadLetters(Path marker) {
+        Path deadLetterDirectory = spoolDirectory.resolve(DEAD_LETTER_DIRECTORY);
+        try {
+            Files.createDirectories(deadLetterDirectory);
+            Files.move(marker, deadLetterDirectory.resolve(marker.getFileName()),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileSync.force(spoolDirectory);
+        } catch (IOException e) {
+            logger.error("Couldn't move the spool marker (" + marker + ") to the dead letters. [" + e + "]");
+            return false;
+        }
+        logger.error("Gave up importing (" + marker.getFileName() + "), its marker is moved to ("
+                + deadLetterDirectory + ").");
+        return true;
+    }
+
+    /**
+     * Returns true if the given import failure was caused by interrupting the import (the interrupt flag
+     * is cleared once the interruption is thrown, and the importer may wrap it in other exceptions).
+     */
+    private static boolean isInterruption(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) return true;
+        for (Throwable cause = e ; cause != null ; cause = cause.getCause())
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException) return true;
+        return false;
+    }
+
+    /**
+     * Imports the parquet file of the given marker then deletes the marker.
+     * Returns true if the file is imported (or doesn't exist anymore) and false otherwise.
+     */
+    private boolean importSpooledFile(Path marker) {
+        String parquetFilePath;
+        try {
+            parquetFilePath = Files.readString(marker, StandardCharsets.UTF_8);
+        } catch (IOException e) { // Retrying won't help
+            logger.error("Couldn't read the spool marker (" + marker + "). [" + e + "]");
+            return moveToDeadLetters(marker);
+        }
+        if (Files.exists(Path.of(parquetFilePath))) {
+            try {
+                importer.accept(parquetFilePath);
+            } catch (Throwable e) {
+                if (! isOpen || isInterruption(e)) { // Closing the spool interrupted the import, it's not a failure
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                logger.error("Couldn't import the parquet file (" + parquetFilePath + "). [" + e + "]");
+                return false;
+            }
+        } else logger.error("The spooled parquet file (" + parquetFilePath + ") doesn't exist anymore.");
+        try {
+            Files.deleteIfExists(marker);
+        } catch (IOException e) {
+            logger.error("Couldn't delete the spool marker (" + marker + "). [" + e + "]");
+            return false;
+        }
+        return true;
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents the failed attempts to import a file and the number of files imported before its first failure.
+     */
+    private record FailedImport(int attempts, long importedFileCount) {}
+}
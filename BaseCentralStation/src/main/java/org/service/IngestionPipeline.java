@@ -0,0 +1,473 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.api.BitcaskStore;
+import org.schema.WeatherRecords;
+import org.store.BitCaskHandle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Partition-parallel pipeline which consumes the weather messages. The calling thread polls the consumer
+ * and splits each poll into one batch per partition. Every assigned partition has its own lane which owns
+ * a bitcask store (partition_<index> in the bitcask root directory) and a parquet writer (partition_<index>
+ * in the parquet root directory), so the partitions are ingested in parallel without sharing any writer:
+ *   * Store: decodes the messages of each batch in either wire format (on a shared pool of decode workers
+ *     for large batches) and stores the latest status of each station in the batch in the lane's bitcask
+ *     store (single commit). The statuses are always stored as JSON messages, whatever their wire format.
+ *   * Archive: writes all the messages of the batch in the lane's parquet files.
+ * The stages of a lane are connected by bounded queues. When a lane's queue is full, its partition is
+ * paused (the consumer keeps polling so the group membership stays alive) and resumed once the queue has
+ * room again. The offsets are only committed at the durability points of the lanes: once a parquet file is
+ * closed and forced to disk (rolled over, expired or the lane is closed), the lane's bitcask store is forced
+ * to disk, the offset after the file's last record is written to the lane's offset file (partition_<index>.offset
+ * in the bitcask root directory, synced and atomically replaced) and that offset is committed to Kafka. The
+ * persisted offset lets a restart resume precisely even if the commit to Kafka was lost (the later of both
+ * is used), and it's kept out of the store so the store only holds station keys.
+ * The lanes are opened when their partitions are assigned, and drained, flushed and closed (committing their
+ * offsets) when their partitions are revoked. A stage failure stops the pipeline without committing the
+ * offsets of the records which aren't durable.
+ */
+public class IngestionPipeline {
+
+    // Constants
+    private static final Logger logger = LogManager.getLogger(IngestionPipeline.class);
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+    private static final int STAGE_QUEUE_CAPACITY = 16; // The maximum number of batches waiting for each stage
+    private static final int DECODE_WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int MIN_DECODE_CHUNK_SIZE = 64; // Smaller batches (or chunks) are decoded on one worker
+    private static final long STAGE_POLL_TIMEOUT_MILLIS = 100; // How often the idle stages check for shutdown
+    private static final String OFFSET_FILE_SUFFIX = ".offset"; // The lanes' offset files (next to their stores)
+
+    private final Consumer<String, byte[]> consumer;
+    private final BitcaskStore bitcaskStore;
+    private final String bitcaskRootDirectory;
+    private final List<BitcaskStore.OPTIONS> bitcaskOptions;
+    private final String parquetRootDirectory;
+    private final ParquetWriterManager.RolloverPolicy parquetRolloverPolicy;
+    private final IndexingSpool indexingSpool;
+    private final ExecutorService decodeWorkers;
+    private final Deserializer<GenericRecord> messageDeserializer = new WeatherMessageDeserializer();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean isRunning = true;
+
+    // Poll thread state
+    private final Map<TopicPartition, PartitionLane> lanes = new HashMap<>();
+
+    public IngestionPipeline(Consumer<String, byte[]> consumer,
+                             BitcaskStore bitcaskStore, String bitcaskRootDirectory,
+                             List<BitcaskStore.OPTIONS> bitcaskOptions, String parquetRootDirectory,
+                             ParquetWriterManager.RolloverPolicy parquetRolloverPolicy,
+                             IndexingSpool indexingSpool) {
+        this.consumer = consumer;
+        this.bitcaskStore = bitcaskStore;
+        this.bitcaskRootDirectory = bitcaskRootDirectory;
+        this.bitcaskOptions = bitcaskOptions;
+        this.parquetRootDirectory = parquetRootDirectory;
+        this.parquetRolloverPolicy = parquetRolloverPolicy;
+        this.indexingSpool = indexingSpool;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.decodeWorkers = Executors.newFixedThreadPool(DECODE_WORKER_COUNT, runnable ->
+                new Thread(runnable, "pipeline-decode-worker-" + workerCount.incrementAndGet()));
+    }
+
+    /**
+     * Subscribes to the given topic and runs the pipeline until it's stopped (or a stage fails).
+     * Must be called by the thread which owns the consumer.
+     */
+    public void run(String topic) {
+        consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                closeLanes(partitions, true);
+            }
+
+            @Override
+            public void onPartitionsLost(Collection<TopicPartition> partitions) {
+                closeLanes(partitions, false); // The partitions may already be owned by another consumer
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                for (TopicPartition partition : partitions) lanes.put(partition, new PartitionLane(partition));
+                seekToPersistedOffsets(partitions);
+            }
+        });
+        try {
+            while (isRunning) {
+                checkFailure();
+                ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+                for (TopicPartition partition : records.partitions())
+                    lanes.get(partition).pendingBatches.add(new Batch(records.records(partition)));
+                for (PartitionLane lane : lanes.values()) lane.handOverPendingBatches();
+                commitDurableOffsets(lanes.values(), false);
+            }
+        } catch (WakeupException e) {
+            if (isRunning) throw e;
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stops the pipeline, can be called from any thread. The batches which were already
+     * handed to the lanes are completed, archived and their offsets are committed.
+     */
+    public void stop() {
+        isRunning = false;
+        consumer.wakeup();
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Commits the offsets which the given lanes made durable since their last commit.
+     */
+    private void commitDurableOffsets(Collection<PartitionLane> partitionLanes, boolean isSync) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (PartitionLane lane : partitionLanes) {
+            long durableOffset = lane.durableOffset;
+            if (durableOffset <= lane.committedOffset) continue;
+            offsets.put(lane.partition, new OffsetAndMetadata(durableOffset));
+            lane.committedOffset = durableOffset; // A failed commit is retried by the next durability point
+        }
+        if (offsets.isEmpty()) return;
+        if (! isSync) {
+            consumer.commitAsync(offsets, (committedOffsets, e) -> {
+                if (e != null) logger.error("Couldn't commit the offsets " + committedOffsets + ". [" + e + "]");
+            });
+            return;
+        }
+        try {
+            consumer.commitSync(offsets);
+        } catch (WakeupException e) {
+            consumer.commitSync(offsets); // The wakeup of the stop request was still pending
+        }
+    }
+
+    /**
+     * Closes the lanes of the given partitions after they complete the batches handed to them,
+     * committing their offsets if requested. The pending batches are consumed again by the next owner.
+     */
+    private void closeLanes(Collection<TopicPartition> partitions, boolean isCommitted) {
+        List<PartitionLane> closedLanes = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            PartitionLane lane = lanes.remove(partition);
+            if (lane == null) continue;
+            lane.close();
+            closedLanes.add(lane);
+        }
+        if (isCommitted) commitDurableOffsets(closedLanes, true);
+    }
+
+    /**
+     * Seeks the given (newly assigned) partitions to the offsets persisted in their stores
+     * when they're ahead of the offsets committed to Kafka (i.e. the last commit was lost).
+     */
+    private void seekToPersistedOffsets(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> committedOffsets = consumer.committed(new HashSet<>(partitions));
+        for (TopicPartition partition : partitions) {
+            long persistedOffset = lanes.get(partition).committedOffset;
+            OffsetAndMetadata committedOffset = committedOffsets.get(partition);
+            if (persistedOffset < 0 || (committedOffset != null && committedOffset.offset() >= persistedOffset))
+                continue;
+            consumer.seek(partition, persistedOffset);
+            logger.info("Resumed partition (" + partition + ") from its persisted offset (" + persistedOffset + ").");
+        }
+    }
+
+    /**
+     * Decodes the messages of the given records (in parallel for large batches), the message
+     * of a record without a value (a tombstone) is null.
+     */
+    private List<GenericRecord> decode(List<ConsumerRecord<String, byte[]>> records) throws Exception {
+        int chunkSize = Math.max(MIN_DECODE_CHUNK_SIZE, (records.size() + DECODE_WORKER_COUNT - 1) / DECODE_WORKER_COUNT);
+        List<Callable<List<GenericRecord>>> chunks = new ArrayList<>();
+        for (int start = 0 ; start < records.size() ; start += chunkSize) {
+            List<ConsumerRecord<String, byte[]>> chunk = records.subList(start, Math.min(records.size(), start + chunkSize));
+            chunks.add(() -> {
+                List<GenericRecord> messages = new ArrayList<>(chunk.size());
+                for (ConsumerRecord<String, byte[]> consumerRecord : chunk)
+                    messages.add(messageDeserializer.deserialize
+                            (consumerRecord.topic(), consumerRecord.headers(), consumerRecord.value()));
+                return messages;
+            });
+        }
+        if (chunks.size() == 1) return chunks.get(0).call();
+        List<GenericRecord> messages = new ArrayList<>(records.size());
+        for (Future<List<GenericRecord>> future : decodeWorkers.invokeAll(chunks)) messages.addAll(future.get());
+        return messages;
+    }
+
+    /**
+     * Closes all the lanes (committing the offsets of the archived batches) and the decode workers.
+     */
+    private void shutdown() {
+        isRunning = false;
+        closeLanes(new ArrayList<>(lanes.keySet()), true);
+        decodeWorkers.shutdownNow();
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure.get() != null) throw new RuntimeException("The ingestion pipeline failed", failure.get());
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Processes the batches taken by a stage.
+     */
+    @FunctionalInterface
+    private interface Stage {
+        void process(Batch batch) throws Exception;
+    }
+
+    /**
+     * Ingests the batches of a single partition using its own bitcask store and parquet writer.
+     */
+    private final class PartitionLane {
+
+        private final TopicPartition partition;
+        private final BitCaskHandle bitcaskHandle;
+        private final Path offsetFile; // Holds the offset after the last durable record of the partition
+        private final ParquetWriterManager parquetWriterManager;
+        private final BlockingQueue<Batch> storeQueue = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+        private final BlockingQueue<Batch> archiveQueue = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+        private final List<Thread> stageThreads = new ArrayList<>();
+        private volatile boolean isClosing;
+
+        // Archive thread state
+        private long archivedOffset = -1; // The offset after the last record written in the parquet files
+        private volatile long durableOffset = -1; // The offset after the last record closed in a parquet file
+
+        // Poll thread state
+        private final Deque<Batch> pendingBatches = new ArrayDeque<>(); // Polled batches waiting for the store queue
+        private long committedOffset; // The last committed offset (initially the offset persisted in the store)
+        private boolean isPaused;
+
+        private PartitionLane(TopicPartition partition) {
+            this.partition = partition;
+            this.bitcaskHandle = bitcaskStore.open
+                    (bitcaskRootDirectory + "/partition_" + partition.partition(), bitcaskOptions);
+            this.offsetFile = Path.of(bitcaskRootDirectory, "partition_" + partition.partition() + OFFSET_FILE_SUFFIX);
+            this.committedOffset = readPersistedOffset();
+            this.parquetWriterManager
+                    = new ParquetWriterManager(parquetRootDirectory + "/partition_" + partition.partition(),
+                    parquetRolloverPolicy, indexingSpool);
+            Thread storeThread = startStage("pipeline-store-" + partition, storeQueue, this::store, null, null);
+            startStage("pipeline-archive-" + partition, archiveQueue, this::archive,
+                    this::closeExpiredParquetFile, storeThread);
+            logger.debug("Opened the lane of partition (" + partition + ").");
+        }
+
+        /**
+         * Hands the pending batches (in poll order) to the store stage while its queue has room,
+         * pausing the partition while there are pending batches.
+         */
+        private void handOverPendingBatches() {
+            while (! pendingBatches.isEmpty() && storeQueue.offer(pendingBatches.peek()))
+                pendingBatches.poll();
+            if (! pendingBatches.isEmpty() && ! isPaused) {
+                consumer.pause(List.of(partition));
+                isPaused = true;
+                logger.debug("The lane of partition (" + partition + ") is full, paused its consumption.");
+            }
+            else if (pendingBatches.isEmpty() && isPaused) {
+                consumer.resume(List.of(partition));
+                isPaused = false;
+                logger.debug("Resumed the consumption of partition (" + partition + ").");
+            }
+        }
+
+        /**
+         * Decodes the messages of the given batch, stores the latest status of each station in the batch
+         * (as the JSON message of the station, whatever its wire format) as a single commit and hands the
+         * batch to the archive stage. The records
+         * without a value (tombstones) carry no message, they're skipped by both stages.
+         */
+        private void store(Batch batch) throws Exception {
+            batch.messages = decode(batch.records);
+            Map<Long, GenericRecord> latestStatuses = new HashMap<>();
+            for (int i = 0 ; i < batch.records.size() ; i++) {
+                GenericRecord message = batch.messages.get(i);
+                if (message == null) {
+                    logger.warn("Skipped the record without a value at offset (" + batch.records.get(i).offset()
+                            + ") of partition (" + partition + ").");
+                    continue;
+                }
+                latestStatuses.put((Long) message.get("Station_ID"), message);
+            }
+            List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(latestStatuses.size());
+            latestStatuses.forEach((stationId, status) -> entries.add
+                    (Map.entry(String.valueOf(stationId).getBytes(StandardCharsets.UTF_8),
+                            WeatherRecords.toJson(status).toString().getBytes(StandardCharsets.UTF_8))));
+            if (! bitcaskStore.putAll(bitcaskHandle, entries))
+                throw new RuntimeException("Couldn't store the batch in the bitcask store");
+            archiveQueue.put(batch);
+        }
+
+        /**
+         * Writes all the messages of the given batch in the parquet files, persisting the offset
+         * after the last record of each parquet file which gets closed.
+         */
+        private void archive(Batch batch) {
+            for (int i = 0 ; i < batch.records.size() ; i++) {
+                GenericRecord message = batch.messages.get(i);
+                archivedOffset = batch.records.get(i).offset() + 1;
+                if (message == null) continue; // Skipped by the store stage
+                logger.debug("A new weather message is received: " + message);
+                if (parquetWriterManager.writeParquetRecord(message)) persistOffset(archivedOffset);
+            }
+            closeExpiredParquetFile();
+        }
+
+        /**
+         * Closes the current parquet file if it's open for too long, so the offsets of
+         * a partition which receives few messages are still committed.
+         */
+        private void closeExpiredParquetFile() {
+            if (parquetWriterManager.closeIfExpired()) persistOffset(archivedOffset);
+        }
+
+        /**
+         * Forces the bitcask store to disk (so the statuses stored before the given offset are durable), then
+         * persists the offset in the offset file and publishes it to be committed by the poll thread.
+         */
+        private void persistOffset(long offset) {
+            if (! bitcaskStore.sync(bitcaskHandle))
+                throw new RuntimeException("Couldn't persist the offset (" + offset + ") of partition (" + partition + ")");
+            writeOffsetFile(offset);
+            durableOffset = offset;
+        }
+
+        /**
+         * Returns the offset persisted in the offset file or -1 if there's none.
+         */
+        private long readPersistedOffset() {
+            try {
+                if (! Files.exists(offsetFile)) return -1;
+                return Long.parseLong(Files.readString(offsetFile, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.error("Couldn't read the offset file (" + offsetFile + ")");
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Replaces the offset file with the given offset, the offset is durable once this call returns.
+         */
+        private void writeOffsetFile(long offset) {
+            Path temporaryOffsetFile = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporaryOffsetFile,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(String.valueOf(offset).getBytes(StandardCharsets.UTF_8)));
+                    channel.force(true);
+                }
+                Files.move(temporaryOffsetFile, offsetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                FileSync.force(offsetFile.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                logger.error("Couldn't persist the offset (" + offset + ") of partition (" + partition + ")");
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Starts a stage thread which processes the batches of the given queue one after the other (calling the
+         * given idle action, if any, when no batch is received for a while). The stage stops once the lane is
+         * closing and its queue is drained (after its upstream stage stops).
+         */
+        private Thread startStage(String name, BlockingQueue<Batch> queue, Stage stage,
+                                  Runnable idleAction, Thread upstreamThread) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Batch batch = queue.poll(STAGE_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (batch != null) stage.process(batch);
+                        else if (isClosing && (upstreamThread == null || ! upstreamThread.isAlive())) return;
+                        else if (idleAction != null) idleAction.run();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable e) {
+                    logger.error("The (" + name + ") stage failed. [" + e + "]");
+                    failure.compareAndSet(null, e);
+                    stop();
+                }
+            }, name);
+            thread.start();
+            stageThreads.add(thread);
+            return thread;
+        }
+
+        /**
+         * Waits for the stages to complete the batches handed to them, then closes the parquet writer
+         * (flushing its file and persisting its offset unless the pipeline failed) and the bitcask store.
+         */
+        private void close() {
+            isClosing = true;
+            try {
+                for (Thread stageThread : stageThreads) {
+                    if (failure.get() != null) stageThread.interrupt(); // The remaining batches can't be archived
+                    stageThread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                // The records of a failed pipeline are consumed again, even if they were archived
+                if (parquetWriterManager.close() && failure.get() == null) persistOffset(archivedOffset);
+            } catch (RuntimeException e) {
+                logger.error("Couldn't close the parquet writer of partition (" + partition + "). [" + e + "]");
+                failure.compareAndSet(null, e);
+            } finally {
+                bitcaskStore.close(bitcaskHandle);
+            }
+            logger.debug("Closed the lane of partition (" + partition + ").");
+        }
+    }
+
+    /**
+     * Represents the records of a single partition in a poll.
+     */
+    private static final class Batch {
+
+        private final List<ConsumerRecord<String, byte[]>> records;
+        private volatile List<GenericRecord> messages; // Set by the store stage
+
+        private Batch(List<ConsumerRecord<String, byte[]>> records) {
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Compacts the small parquet files written by the partitions' writers (partition_<index> in the parquet root
+ * directory) into large files partitioned by the date of their records (date=YYYY-MM-DD in the parquet root
+ * directory). The records of each date are sorted by station ID and timestamp (the duplicates which were
+ * consumed again after a crash are dropped, within the new file and whenever files are merged) and appended
+ * to the date as a new compacted file. The date's compacted files are merged by size tiers (a tier holds the
+ * files whose sizes are within a factor of the merge fan-in): once a tier has fan-in files they're merged into
+ * a file of a larger tier, so each record is rewritten once per tier (instead of once per compaction) and each
+ * date ends up with a few large files having large row groups. Only the files which are closed for a while and
+ * aren't waiting to be imported to elasticsearch are compacted, and the files which can't be read are moved to
+ * the quarantine directory (_quarantine in the parquet root directory) instead of being read by every compaction.
+ * The compacted files replace their inputs atomically: the new files are written under hidden names, then a
+ * journal listing their renames and the deletions of the inputs is written and synced (the commit point) and
+ * applied. A compaction which is interrupted before its journal is written is discarded and one which is
+ * interrupted after it is completed by the next compaction.
+ */
+public class ParquetCompactor {
+
+    // Constants
+    private static final Logger logger = LogManager.getLogger(ParquetCompactor.class);
+    private static final String PARTITION_DIRECTORY_PREFIX = "partition_";
+    private static final String DATE_DIRECTORY_PREFIX = "date=";
+    private static final String PARQUET_SUFFIX = ".parquet";
+    private static final String TEMPORARY_PREFIX = "_"; // Hides the compacted files from the readers until committed
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String JOURNAL_NAME = "_compaction.journal";
+    private static final String QUARANTINE_DIRECTORY = "_quarantine"; // Holds the partition files which can't be read
+    private static final long FIRST_TIER_MAX_BYTES = 1024*1024; // The files smaller than this size are in the first tier
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final Comparator<GenericRecord> RECORD_ORDER = Comparator
+            .<GenericRecord>comparingLong(record -> (Long) record.get("Station_ID"))
+            .thenComparingLong(record -> (Long) record.get("Timestamp"))
+            .thenComparingLong(record -> (Long) record.get("Sequence_Number"));
+
+    // State variables
+    private final String parquetRootDirectory;
+    private final Settings settings;
+    private final Predicate<String> isPendingImport; // Tells if the given parquet file isn't imported yet
+    private final Configuration configuration = new Configuration();
+    private final FileSystem fileSystem;
+    private final java.nio.file.Path journalPath; // Exists while a committed compaction isn't completely applied
+    private final java.nio.file.Path temporaryJournalPath;
+
+    public ParquetCompactor(String parquetRootDirectory, Settings settings, Predicate<String> isPendingImport) {
+        this.parquetRootDirectory = parquetRootDirectory;
+        this.settings = settings;
+        this.isPendingImport = isPendingImport;
+        this.journalPath = java.nio.file.Path.of(parquetRootDirectory, JOURNAL_NAME);
+        this.temporaryJournalPath = java.nio.file.Path.of(parquetRootDirectory, JOURNAL_NAME + TEMPORARY_SUFFIX);
+        try {
+            this.fileSystem = new Path(parquetRootDirectory).getFileSystem(configuration);
+        } catch (IOException e) {
+            logger.error("Couldn't open the file system of (" + parquetRootDirectory + ")");
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Completes (or discards) the interrupted compaction, if any, then compacts the oldest eligible
+     * partition files (up to the maximum input records of a compaction) and merges the full tiers of
+     * the compacted files of their dates.
+     * Returns the number of compacted (or quarantined) partition files (zero once there's nothing left to compact).
+     */
+    public synchronized int compact() throws IOException {
+        recover();
+        List<Path> inputFiles = new ArrayList<>();
+        int quarantinedFiles = 0;
+        Map<LocalDate, List<GenericRecord>> recordsByDate = new TreeMap<>();
+        for (FileStatus file : selectInputFiles()) {
+            List<GenericRecord> records = readRecords(file.getPath());
+            if (records == null) {
+                quarantine(file.getPath());
+                quarantinedFiles++;
+                continue;
+            }
+            for (GenericRecord record : records)
+                recordsByDate.computeIfAbsent(getDate(record), date -> new ArrayList<>()).add(record);
+            inputFiles.add(file.getPath());
+        }
+        if (inputFiles.isEmpty()) return quarantinedFiles;
+
+        long compactionTime = System.currentTimeMillis();
+        List<Path> replacedFiles = new ArrayList<>(inputFiles);
+        List<Path> compactedFiles = new ArrayList<>();
+        int mergedFiles = 0;
+        for (Map.Entry<LocalDate, List<GenericRecord>> entry : recordsByDate.entrySet()) {
+            Path dateDirectory = new Path(parquetRootDirectory, DATE_DIRECTORY_PREFIX + entry.getKey());
+            List<FileStatus> tierFiles = selectTierToMerge(dateDirectory); // Before appending the new file
+            List<GenericRecord> records = entry.getValue();
+            records.sort(RECORD_ORDER);
+            compactedFiles.addAll(writeCompactedFiles(dateDirectory, "part-" + compactionTime + "-", records, List.of()));
+            if (tierFiles.isEmpty()) continue;
+            List<Path> tierPaths = tierFiles.stream().map(FileStatus::getPath).toList();
+            compactedFiles.addAll(writeCompactedFiles
+                    (dateDirectory, "merged-" + compactionTime + "-", List.of(), tierPaths));
+            replacedFiles.addAll(tierPaths);
+            mergedFiles += tierPaths.size();
+        }
+        commit(compactedFiles, replacedFiles);
+        logger.info("Compacted (" + inputFiles.size() + ") parquet files and merged (" + mergedFiles
+                + ") compacted files into (" + compactedFiles.size() + ") files.");
+        return inputFiles.size() + quarantinedFiles;
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Returns the partition files which can be compacted (closed for the minimum age and imported), the oldest
+     * first, up to the maximum input records of a compaction (at least one file if any). The record counts
+     * are read from the files' footers, and the files whose footers can't be read are quarantined.
+     */
+    private List<FileStatus> selectInputFiles() throws IOException {
+        List<FileStatus> candidateFiles = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (FileStatus directory : listFiles(new Path(parquetRootDirectory), PARTITION_DIRECTORY_PREFIX)) {
+            if (! directory.isDirectory()) continue;
+            for (FileStatus file : listFiles(directory.getPath(), "")) {
+                String fileName = file.getPath().getName();
+                if (! file.isFile() || ! fileName.endsWith(PARQUET_SUFFIX) || isHidden(fileName)
+                        || now - file.getModificationTime() < settings.minInputFileAgeMillis()) continue;
+                // The path as it was spooled by the partition's writer
+                String parquetFilePath = parquetRootDirectory + "/" + directory.getPath().getName() + "/" + fileName;
+                if (! isPendingImport.test(parquetFilePath)) candidateFiles.add(file);
+            }
+        }
+        candidateFiles.sort(Comparator.comparingLong(FileStatus::getModificationTime));
+        List<FileStatus> inputFiles = new ArrayList<>();
+        long inputRecords = 0;
+        for (FileStatus file : candidateFiles) {
+            long recordCount = readRecordCount(file.getPath());
+            if (recordCount < 0) {
+                quarantine(file.getPath());
+                continue;
+            }
+            if (! inputFiles.isEmpty() && inputRecords + recordCount > settings.maxInputRecordsPerCompaction()) break;
+            inputFiles.add(file);
+            inputRecords += recordCount;
+        }
+        return inputFiles;
+    }
+
+    /**
+     * Returns the committed compacted files of the given date directory which should be merged: the files of
+     * the lowest tier which has at least fan-in files (the files which reached the maximum size aren't merged).
+     * Returns an empty list if no tier is full.
+     */
+    private List<FileStatus> selectTierToMerge(Path dateDirectory) throws IOException {
+        Map<Integer, List<FileStatus>> filesByTier = new TreeMap<>();
+        for (FileStatus file : listFiles(dateDirectory, ""))
+            if (file.isFile() && file.getPath().getName().endsWith(PARQUET_SUFFIX)
+                    && ! isHidden(file.getPath().getName()) && file.getLen() < settings.maxCompactedFileBytes())
+                filesByTier.computeIfAbsent(getTier(file.getLen()), tier -> new ArrayList<>()).add(file);
+        for (List<FileStatus> tierFiles : filesByTier.values())
+            if (tierFiles.size() >= settings.mergeFanIn()) return tierFiles;
+        return List.of();
+    }
+
+    /**
+     * Returns the tier of a compacted file of the given size: the first tier holds the files smaller than
+     * its maximum size and each next tier holds files up to fan-in times larger than the previous one.
+     */
+    private int getTier(long fileBytes) {
+        int tier = 0;
+        for (long tierMaxBytes = FIRST_TIER_MAX_BYTES ; fileBytes >= tierMaxBytes ; tierMaxBytes *= settings.mergeFanIn())
+            tier++;
+        return tier;
+    }
+
+    /**
+     * Returns the number of records of the given partition file (from its footer).
+     * Returns -1 if the footer can't be read (e.g. the file was left incomplete by a crash).
+     */
+    private long readRecordCount(Path file) {
+        try (ParquetFileReader parquetFileReader
+                     = ParquetFileReader.open(HadoopInputFile.fromPath(file, configuration))) {
+            return parquetFileReader.getRecordCount();
+        } catch (Exception e) {
+            logger.error("Couldn't read the footer of the parquet file (" + file + "). [" + e + "]");
+            return -1;
+        }
+    }
+
+    /**
+     * Reads all the records of the given partition file.
+     * Returns null if the file can't be read (e.g. it has a corrupted page), so it's quarantined.
+     */
+    private List<GenericRecord> readRecords(Path file) {
+        List<GenericRecord> records = new ArrayList<>();
+        try (ParquetReader<GenericRecord> parquetReader = openReader(file)) {
+            GenericRecord record;
+            while ((record = parquetReader.read()) != null) records.add(record);
+            return records;
+        } catch (Exception e) {
+            logger.error("Couldn't read the parquet file (" + file + "). [" + e + "]");
+            return null;
+        }
+    }
+
+    /**
+     * Moves the given partition file which can't be read to the quarantine directory (named after its
+     * partition directory and file name), so the next compactions don't read it again.
+     */
+    private void quarantine(Path file) throws IOException {
+        Path quarantineDirectory = new Path(parquetRootDirectory, QUARANTINE_DIRECTORY);
+        Path quarantinedFile = new Path(quarantineDirectory, file.getParent().getName() + "_" + file.getName());
+        if (! fileSystem.mkdirs(quarantineDirectory) || ! fileSystem.rename(file, quarantinedFile))
+            throw new IOException("Couldn't quarantine (" + file + ") to (" + quarantinedFile + ")");
+        logger.warn("Quarantined the unreadable parquet file (" + file + ") to (" + quarantinedFile + ").");
+    }
+
+    /**
+     * Writes the given (sorted) records merged with the records of the given (sorted) compacted files into new
+     * compacted files of the given date directory under temporary names (starting with the given name prefix),
+     * rolling them over once they reach the maximum size. The consecutive duplicates are written once.
+     * Returns the temporary paths of the written files.
+     */
+    private List<Path> writeCompactedFiles(Path dateDirectory, String namePrefix, List<GenericRecord> records,
+                                           List<Path> compactedFiles) throws IOException {
+        List<Path> writtenFiles = new ArrayList<>();
+        PriorityQueue<RecordSource> sources
+                = new PriorityQueue<>((first, second) -> RECORD_ORDER.compare(first.current, second.current));
+        ParquetWriter<GenericRecord> parquetWriter = null;
+        try {
+            RecordSource recordsSource = new RecordSource(records.iterator()::next, records.size(), null);
+            if (recordsSource.advance()) sources.add(recordsSource);
+            for (Path compactedFile : compactedFiles) {
+                ParquetReader<GenericRecord> parquetReader = openReader(compactedFile);
+                RecordSource fileSource = new RecordSource(parquetReader::read, Long.MAX_VALUE, parquetReader);
+                if (fileSource.advance()) sources.add(fileSource);
+                else parquetReader.close();
+            }
+            GenericRecord previousRecord = null;
+            while (! sources.isEmpty()) {
+                RecordSource source = sources.poll();
+                GenericRecord record = source.current;
+                if (previousRecord == null || RECORD_ORDER.compare(previousRecord, record) != 0) {
+                    if (parquetWriter == null) {
+                        Path file = new Path(dateDirectory, TEMPORARY_PREFIX + namePrefix + writtenFiles.size() + PARQUET_SUFFIX + TEMPORARY_SUFFIX);
+                        parquetWriter = createWriter(file);
+                        writtenFiles.add(file);
+                    }
+                    parquetWriter.write(record);
+                    previousRecord = record;
+                    if (parquetWriter.getDataSize() >= settings.maxCompactedFileBytes()) {
+                        parquetWriter.close();
+                        parquetWriter = null;
+                    }
+                }
+                if (source.advance()) sources.add(source);
+                else source.close();
+            }
+        } finally {
+            for (RecordSource source : sources) source.close();
+            if (parquetWriter != null) parquetWriter.close();
+        }
+        return writtenFiles;
+    }
+
+    /**
+     * Replaces the given files with the given compacted (temporary) files: forces the compacted files to disk,
+     * writes and syncs the journal of the replacement then applies it.
+     */
+    private void commit(List<Path> compactedFiles, List<Path> replacedFiles) throws IOException {
+        // Hadoop's local file system doesn't sync the closed files, the files, their checksums and their
+        // directories are forced before the journal which commits them
+        for (Path file : compactedFiles) {
+            java.nio.file.Path compactedFile = java.nio.file.Path.of(file.toUri().getPath());
+            FileSync.force(compactedFile.resolveSibling("." + compactedFile.getFileName() + ".crc"));
+            FileSync.forceWithDirectory(compactedFile);
+        }
+        FileSync.force(java.nio.file.Path.of(parquetRootDirectory)); // Holds the entries of the new date directories
+        StringBuilder journal = new StringBuilder();
+        for (Path file : compactedFiles) journal.append("rename\t").append(file).append('\n');
+        for (Path file : replacedFiles) journal.append("delete\t").append(file).append('\n');
+        try (FileChannel channel = FileChannel.open(temporaryJournalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(journal.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(temporaryJournalPath, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        FileSync.force(java.nio.file.Path.of(parquetRootDirectory)); // The journal's entry
+        applyJournal();
+    }
+
+    /**
+     * Completes the committed compaction whose journal is left (if any), then deletes the compacted
+     * files which were left uncommitted.
+     */
+    private void recover() throws IOException {
+        if (Files.exists(journalPath)) {
+            logger.info("Completing the interrupted compaction of (" + parquetRootDirectory + ").");
+            applyJournal();
+        }
+        Files.deleteIfExists(temporaryJournalPath);
+        for (FileStatus directory : listFiles(new Path(parquetRootDirectory), DATE_DIRECTORY_PREFIX))
+            for (FileStatus file : listFiles(directory.getPath(), TEMPORARY_PREFIX))
+                if (file.getPath().getName().endsWith(TEMPORARY_SUFFIX)) fileSystem.delete(file.getPath(), false);
+    }
+
+    /**
+     * Applies the journal (renames the compacted files to their final names then deletes the replaced
+     * files) then deletes it once the changed directories are forced to disk. The journal can be applied
+     * again if it's interrupted.
+     */
+    private void applyJournal() throws IOException {
+        Set<java.nio.file.Path> changedDirectories = new HashSet<>();
+        for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+            String[] entry = line.split("\t", 2);
+            Path file = new Path(entry[1]);
+            changedDirectories.add(java.nio.file.Path.of(file.getParent().toUri().getPath()));
+            if (entry[0].equals("rename") && fileSystem.exists(file)) {
+                String fileName = file.getName();
+                Path committedFile = new Path(file.getParent(), fileName.substring
+                        (TEMPORARY_PREFIX.length(), fileName.length() - TEMPORARY_SUFFIX.length()));
+                if (! fileSystem.rename(file, committedFile))
+                    throw new IOException("Couldn't rename (" + file + ") to (" + committedFile + ")");
+            }
+            else if (entry[0].equals("delete")) fileSystem.delete(file, false);
+        }
+        for (java.nio.file.Path directory : changedDirectories) FileSync.force(directory);
+        Files.delete(journalPath);
+    }
+
+    private FileStatus[] listFiles(Path directory, String namePrefix) throws IOException {
+        if (! fileSystem.exists(directory)) return new FileStatus[0];
+        return fileSystem.listStatus(directory, path -> path.getName().startsWith(namePrefix));
+    }
+
+    private ParquetReader<GenericRecord> openReader(Path file) throws IOException {
+        return AvroParquetReader.<GenericRecord>builder(HadoopInputFile.fromPath(file, configuration))
+                .withDataModel(GenericData.get())
+                .build();
+    }
+
+    /**
+     * Creates a writer of a compacted file (with the row group and page sizes of the settings).
+     */
+    private ParquetWriter<GenericRecord> createWriter(Path file) throws IOException {
+        return AvroParquetWriter
+                .<GenericRecord>builder(file)
+                .withConf(configuration)
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withSchema(ParquetWriterManager.AVRO_SCHEMA)
+                .withRowGroupSize(settings.rowGroupSizeBytes())
+                .withPageSize(settings.pageSizeBytes())
+                .withDictionaryPageSize(settings.pageSizeBytes())
+                .withDictionaryEncoding(true)
+                .build();
+    }
+
+    /**
+     * Returns the (UTC) date of the given record's timestamp (in seconds).
+     */
+    private static LocalDate getDate(GenericRecord record) {
+        return LocalDate.ofEpochDay(Math.floorDiv((Long) record.get("Timestamp"), SECONDS_PER_DAY));
+    }
+
+    private static boolean isHidden(String fileName) {
+        return fileName.startsWith("_") || fileName.startsWith(".");
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * A sorted source of records (the records being compacted or a compacted file) holding its current record.
+     */
+    private static class RecordSource {
+
+        private final RecordSupplier supplier;
+        private final ParquetReader<GenericRecord> parquetReader; // Closed with the source (if any)
+        private long remainingRecords;
+        private GenericRecord current;
+
+        RecordSource(RecordSupplier supplier, long recordCount, ParquetReader<GenericRecord> parquetReader) {
+            this.supplier = supplier;
+            this.remainingRecords = recordCount;
+            this.parquetReader = parquetReader;
+        }
+
+        /**
+         * Moves to the next record. Returns false once the source has no more records.
+         */
+        boolean advance() throws IOException {
+            current = (remainingRecords-- > 0) ? supplier.next() : null;
+            return current != null;
+        }
+
+        void close() throws IOException {
+            if (parquetReader != null) parquetReader.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordSupplier {
+        GenericRecord next() throws IOException;
+    }
+
+    /**
+     * Bounds the compactions: the minimum age of the compacted partition files (since they're closed), the
+     * maximum number of records of the partition files compacted at once (as they're sorted in memory), the
+     * number of compacted files of a tier which are merged together, the size which rolls a compacted file
+     * over, and the row group and page sizes of the compacted files.
+     */
+    public record Settings(long minInputFileAgeMillis, long maxInputRecordsPerCompaction, int mergeFanIn,
+                           long maxCompactedFileBytes, int rowGroupSizeBytes, int pageSizeBytes) {
+
+        public Settings {
+            if (mergeFanIn < 2) throw new IllegalArgumentException("The merge fan-in must be at least 2");
+        }
+    }
+}
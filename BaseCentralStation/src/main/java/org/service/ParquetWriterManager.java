@@ -6,10 +6,6 @@ package org.service;
 
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.logging.log4j.LogManager;
@@ -18,52 +14,95 @@ import org.apache.parquet.avro.AvroParquetWriter;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.json.JSONObject;
+import org.schema.WeatherRecords;
 
 import java.io.IOException;
-import java.util.Objects;
 
 /**
- * Manager for writing parquet files.
+ * Manager for writing the parquet files of a single directory (each consumed partition has its own
+ * manager and directory). The managers aren't thread-safe, each one is used by a single thread.
+ * The files are rolled over according to the manager's rollover policy (file size and age), and the
+ * closed files are added to the indexing spool which imports them to elasticsearch in the background,
+ * so the writing continues right away in a new file (even while elasticsearch is slow or down).
+ * The closed files are forced to disk (with their directory) before they're spooled.
  */
 public class ParquetWriterManager {
 
     // Constants
     private static final Logger logger;
-    private static final Schema AVRO_SCHEMA;
-    private static final int MAXIMUM_OF_RECORDS_IN_PARQUET_FILE = 1000;
+    static final Schema AVRO_SCHEMA;
 
     // State variables
-    private static ParquetWriter<GenericRecord> parquetWriter;
-    private static String parquetFilePath;
-    private static int currentRecordIdx;
+    private final String directoryPath;
+    private final RolloverPolicy rolloverPolicy;
+    private final IndexingSpool indexingSpool;
+    private ParquetWriter<GenericRecord> parquetWriter; // Created with the first record of each file
+    private String parquetFilePath;
+    private long parquetFileCreationTime;
 
     static {
         logger = LogManager.getLogger(ParquetWriterManager.class);
+        AVRO_SCHEMA = WeatherRecords.AVRO_SCHEMA;
+    }
+
+    public ParquetWriterManager(String directoryPath, RolloverPolicy rolloverPolicy, IndexingSpool indexingSpool) {
+        this.directoryPath = directoryPath;
+        this.rolloverPolicy = rolloverPolicy;
+        this.indexingSpool = indexingSpool;
+    }
+
+    /**
+     * Flattens the incoming response message into an Avro generic record (renaming its fields).
+     * The fields are set directly by their (cached) positions in the shared schema.
+     */
+    public static GenericRecord toAvroRecord(JSONObject response) {
         try {
-            AVRO_SCHEMA = Schema.parse(ParquetWriterManager.class.getClassLoader()
-                .getResource("AvroSchema.avsc").openStream());
-        } catch (IOException e) {
-            logger.error("Couldn't find the AVRO Schema");
+            return WeatherRecords.toAvroRecord(response);
+        }
+        catch (Exception e) {
+            logger.error("Couldn't flatten the incoming response to Avro generic record");
             throw new RuntimeException(e);
         }
-        resetParquetWriter();
     }
 
     /**
-     * Writes the incoming response message to the parquet file.
+     * Writes the incoming message (flattened Avro record) to the parquet file.
+     * Returns true if the record completed the parquet file (which is closed) and false otherwise.
      */
-    public static void writeParquetRecord(JSONObject response) {
-        JSONObject flattenedResponse = flattenResponse(response);
-        GenericRecord avroRecord = jsonToAvro(flattenedResponse);
+    public boolean writeParquetRecord(GenericRecord avroRecord) {
         try {
-            Objects.requireNonNull(parquetWriter).write(avroRecord);
-            currentRecordIdx++;
+            if (parquetWriter == null) createParquetWriter();
+            parquetWriter.write(avroRecord);
         } catch (IOException e) {
             logger.error("Couldn't write the avro record in the parquet file: " + e);
             throw new RuntimeException(e);
         }
-        if (currentRecordIdx == MAXIMUM_OF_RECORDS_IN_PARQUET_FILE)
-            resetParquetWriter();
+        if (parquetWriter.getDataSize() < rolloverPolicy.maxFileSizeBytes()) return false;
+        closeParquetWriter();
+        return true;
+    }
+
+    /**
+     * Closes the current parquet file if it's older than the maximum file age of the rollover policy.
+     * Returns true if the file is closed and false otherwise.
+     */
+    public boolean closeIfExpired() {
+        if (parquetWriter == null
+                || System.currentTimeMillis() - parquetFileCreationTime < rolloverPolicy.maxFileAgeMillis())
+            return false;
+        closeParquetWriter();
+        return true;
+    }
+
+    /**
+     * Closes the current parquet file (if any) and spools it to be imported to elasticsearch.
+     * The next written record starts a new parquet file.
+     * Returns true if a file is closed and false otherwise.
+     */
+    public boolean close() {
+        if (parquetWriter == null) return false;
+        closeParquetWriter();
+        return true;
     }
 
     //
@@ -71,62 +110,46 @@ public class ParquetWriterManager {
     //
 
     /**
-     * Flattens the incoming JSONObject and renames its fields.
+     * Creates a new writer with a new output file.
      */
-    private static JSONObject flattenResponse(JSONObject response) {
-        try {
-            JSONObject flattenedResponse = new JSONObject();
-            JSONObject weatherObject = response.getJSONObject("weather");
-
-            flattenedResponse.put("Station_ID", response.getLong("station_id"));
-            flattenedResponse.put("Sequence_Number", response.getLong("s_no"));
-            flattenedResponse.put("Battery_Status", response.getString("battery_status"));
-            flattenedResponse.put("Timestamp", response.getLong("status_timestamp"));
-            flattenedResponse.put("Humidity", weatherObject.getInt("humidity"));
-            flattenedResponse.put("Temperature", weatherObject.getInt("temperature"));
-            flattenedResponse.put("Wind_Speed", weatherObject.getInt("wind_speed"));
-            return flattenedResponse;
-        }
-        catch (Exception e) {
-            logger.error("Couldn't flatten the incoming response");
-            throw new RuntimeException(e);
-        }
+    private void createParquetWriter() throws IOException {
+        parquetFileCreationTime = System.currentTimeMillis();
+        parquetFilePath = directoryPath + "/" + parquetFileCreationTime + ".parquet";
+        parquetWriter = AvroParquetWriter
+                .<GenericRecord>builder(new Path(parquetFilePath))
+                .withConf(new Configuration())
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withSchema(AVRO_SCHEMA)
+                .build();
     }
 
     /**
-     * Parses the response to Avro generic record.
+     * Closes the current parquet writer (if any), forces its file to disk and adds it to the indexing spool.
      */
-    private static GenericRecord jsonToAvro(JSONObject response) {
+    private void closeParquetWriter() {
+        if (parquetWriter == null) return;
         try {
-            DatumReader<GenericRecord> datumReader = new SpecificDatumReader<>(AVRO_SCHEMA);
-            Decoder decoder = DecoderFactory.get().jsonDecoder(AVRO_SCHEMA, response.toString());
-            return datumReader.read(null, decoder);
-        } catch (Exception e) {
-            logger.error("Couldn't parse the response to Avro generic record");
+            parquetWriter.close();
+            parquetWriter = null;
+            // Hadoop's local file system doesn't sync the closed files, the file and its checksum are forced
+            // before the offsets after its records can be committed
+            java.nio.file.Path parquetFile = java.nio.file.Path.of(parquetFilePath);
+            FileSync.force(parquetFile.resolveSibling("." + parquetFile.getFileName() + ".crc"));
+            FileSync.forceWithDirectory(parquetFile);
+        } catch (IOException e) {
+            logger.error("Couldn't close the writer instance");
             throw new RuntimeException(e);
         }
+        indexingSpool.add(parquetFilePath);
     }
 
+    //
+    // Nested Types
+    //
+
     /**
-     * Resets the current parquet writer and create a new writer with a new output file.
+     * Determines when the parquet files are rolled over: once their (written and buffered) data
+     * reaches the maximum size, or once they're open for the maximum age.
      */
-    private static void resetParquetWriter() {
-        try {
-            if (parquetWriter != null) {
-                parquetWriter.close();
-                ElasticsearchManager.importDataToElasticsearch(parquetFilePath);
-            }
-            currentRecordIdx = 0;
-            parquetFilePath = "parquet_data/" + System.currentTimeMillis() + ".parquet";
-            parquetWriter = AvroParquetWriter
-                    .<GenericRecord>builder(new Path(parquetFilePath))
-                    .withConf(new Configuration())
-                    .withCompressionCodec(CompressionCodecName.SNAPPY)
-                    .withSchema(AVRO_SCHEMA)
-                    .build();
-        } catch (IOException e) {
-            logger.error("Couldn't reset the writer instance");
-            throw new RuntimeException(e);
-        }
-    }
+    public record RolloverPolicy(long maxFileSizeBytes, long maxFileAgeMillis) {}
 }
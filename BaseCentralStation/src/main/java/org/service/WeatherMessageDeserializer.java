@@ -0,0 +1,60 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Kafka deserializer of the weather messages which decodes them to parquet (Avro) records according to
+ * their (message_format) header. The messages in Avro binary are decoded directly (no JSON involved), and
+ * the messages which have no header (or the json format) are parsed and flattened from their JSON text.
+ * The deserializer is thread-safe, so the pipeline runs it on its decode workers instead of the poll thread.
+ */
+public class WeatherMessageDeserializer implements Deserializer<GenericRecord> {
+
+    // Constants
+    public static final String MESSAGE_FORMAT_HEADER = "message_format";
+    private static final byte[] AVRO_FORMAT = "avro".getBytes(StandardCharsets.UTF_8);
+    private static final Logger logger = LogManager.getLogger(WeatherMessageDeserializer.class);
+
+    private final DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(ParquetWriterManager.AVRO_SCHEMA);
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>(); // Reused by each decoding thread
+
+    @Override
+    public GenericRecord deserialize(String topic, Headers headers, byte[] data) {
+        Header messageFormat = headers.lastHeader(MESSAGE_FORMAT_HEADER);
+        if (data != null && messageFormat != null && Arrays.equals(AVRO_FORMAT, messageFormat.value())) {
+            try {
+                BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, decoders.get());
+                decoders.set(decoder);
+                return datumReader.read(null, decoder);
+            } catch (IOException e) {
+                logger.error("Couldn't decode the weather message from Avro binary");
+                throw new RuntimeException(e);
+            }
+        }
+        return deserialize(topic, data);
+    }
+
+    @Override
+    public GenericRecord deserialize(String topic, byte[] data) {
+        if (data == null) return null;
+        return ParquetWriterManager.toAvroRecord(new JSONObject(new String(data, StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RestHighLevelClientBuilder;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.schema.WeatherRecords;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the partial failures of the bulk requests against a local HTTP stand-in for elasticsearch which
+ * answers each document of a bulk request with the status chosen by the test for its attempt.
+ */
+class BulkIndexerTest {
+
+    // Constants
+    private static final String INDEX_NAME = "weather_data";
+    private static final BulkIndexer.Settings SETTINGS = new BulkIndexer.Settings(10, 5*1024*1024, 2, 3, 1);
+
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>(); // The attempts of each document ID
+    private final Map<String, int[]> statuses = new ConcurrentHashMap<>(); // The status of each attempt (201 after)
+    private HttpServer server;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new RestHighLevelClientBuilder(RestClient.builder
+                (new HttpHost("localhost", server.getAddress().getPort())).build())
+                .setApiCompatibilityMode(true)
+                .build();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    void onlyTheItemsWhichFailedWithRetryableStatusesAreRetried() throws InterruptedException {
+        List<GenericRecord> records = new ArrayList<>();
+        for (int i = 0 ; i < 30 ; i++) records.add(record(i, 1689523200 + i, 1));
+        String throttled = BulkIndexer.getDocumentId(records.get(3));
+        String unavailable = BulkIndexer.getDocumentId(records.get(14));
+        String invalid = BulkIndexer.getDocumentId(records.get(25));
+        statuses.put(throttled, new int[] {429, 429});
+        statuses.put(unavailable, new int[] {503});
+        statuses.put(invalid, new int[] {400});
+
+        BulkIndexer bulkIndexer = new BulkIndexer(client, INDEX_NAME, SETTINGS);
+        for (GenericRecord record : records) bulkIndexer.add(record);
+        RuntimeException exception = assertThrows(RuntimeException.class, bulkIndexer::close);
+
+        assertEquals(3, attempts.get(throttled).get());
+        assertEquals(2, attempts.get(unavailable).get());
+        assertEquals(1, attempts.get(invalid).get()); // Client errors are never retried
+        assertEquals(29, bulkIndexer.getIndexedDocuments());
+        assertEquals(30, attempts.size());
+        for (GenericRecord record : records) {
+            String id = BulkIndexer.getDocumentId(record);
+            if (! statuses.containsKey(id)) assertEquals(1, attempts.get(id).get(), id);
+        }
+        assertTrue(exception.getMessage().startsWith("Couldn't index (1) documents"), exception.getMessage());
+        assertTrue(exception.getMessage().contains("mapper_parsing_exception"), exception.getMessage());
+    }
+
+    @Test
+    void theRecordsOfARestartedStationHaveDifferentIds() throws InterruptedException {
+        GenericRecord beforeRestart = record(7, 1689523200, 1);
+        GenericRecord afterRestart = record(7, 1689526800, 1); // The sequence numbers start over
+        assertNotEquals(BulkIndexer.getDocumentId(beforeRestart), BulkIndexer.getDocumentId(afterRestart));
+        assertEquals("7_1689523200_1", BulkIndexer.getDocumentId(beforeRestart));
+
+        BulkIndexer bulkIndexer = new BulkIndexer(client, INDEX_NAME, SETTINGS);
+        bulkIndexer.add(beforeRestart);
+        bulkIndexer.add(afterRestart);
+        bulkIndexer.add(beforeRestart); // Importing the same record again (e.g. after a crash) keeps its ID
+        bulkIndexer.close();
+        assertEquals(2, attempts.size());
+    }
+
+    //
+    // Private Methods
+    //
+
+    private static GenericRecord record(long stationId, long timestamp, long sequenceNumber) {
+        return WeatherRecords.toAvroRecord(new JSONObject()
+                .put("station_id", stationId)
+                .put("s_no", sequenceNumber)
+                .put("battery_status", "high")
+                .put("status_timestamp", timestamp)
+                .put("weather", new JSONObject().put("humidity", 40).put("temperature", 80).put("wind_speed", 10)));
+    }
+
+    /**
+     * Answers the product check of the client (GET /) and the bulk requests (an item per document whose
+     * status is the one chosen for its attempt).
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String response;
+        if (exchange.getRequestURI().getPath().endsWith("_bulk")) {
+            String[] lines = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("\n");
+            StringBuilder items = new StringBuilder();
+            boolean hasErrors = false;
+            for (int i = 0 ; i < lines.length ; i += 2) { // An action line followed by a source line per document
+                String id = new JSONObject(lines[i]).getJSONObject("index").getString("_id");
+                int attempt = attempts.computeIfAbsent(id, ignored -> new AtomicInteger()).getAndIncrement();
+                int[] failedStatuses = statuses.get(id);
+                int status = (failedStatuses != null && attempt < failedStatuses.length) ? failedStatuses[attempt] : 201;
+                if (i > 0) items.append(',');
+                items.append("{\"index\":{\"_index\":\"").append(INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"")
+                        .append(id).append("\",\"status\":").append(status);
+                if (status == 201) items.append(",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,")
+                        .append("\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1}}");
+                else {
+                    hasErrors = true;
+                    String type = (status == 400) ? "mapper_parsing_exception" : "es_rejected_execution_exception";
+                    items.append(",\"error\":{\"type\":\"").append(type).append("\",\"reason\":\"status ")
+                            .append(status).append("\"}}}");
+                }
+            }
+            response = "{\"took\":1,\"errors\":" + hasErrors + ",\"items\":[" + items + "]}";
+        }
+        else response = "{\"name\":\"stand-in\",\"cluster_name\":\"test\",\"cluster_uuid\":\"test\","
+                + "\"version\":{\"number\":\"7.17.15\",\"build_flavor\":\"default\",\"build_type\":\"tar\","
+                + "\"build_hash\":\"0\",\"build_date\":\"2023-01-01T00:00:00.000Z\",\"build_snapshot\":false,"
+                + "\"lucene_version\":\"8.11.1\",\"minimum_wire_compatibility_version\":\"6.8.0\","
+                + "\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},\"tagline\":\"You Know, for Search\"}";
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that closing the spool interrupts the running import without losing its file, even when the
+ * importer wraps the interruption (clearing the interrupt flag) like the elasticsearch import does, and that
+ * a file which keeps failing doesn't hold the next files back.
+ */
+class IndexingSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void anImportInterruptedByCloseStaysSpooled() throws IOException, InterruptedException {
+        String parquetFilePath = Files.createFile(directory.resolve("weather_data_0.parquet")).toString();
+        String spoolDirectory = directory.resolve("indexing_spool").toString();
+        Queue<String> imports = new ConcurrentLinkedQueue<>();
+        CountDownLatch isImporting = new CountDownLatch(1);
+        IndexingSpool spool = new IndexingSpool(spoolDirectory, importedFilePath -> {
+            imports.add(importedFilePath);
+            isImporting.countDown();
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // Clears the interrupt flag
+            }
+        });
+        spool.add(parquetFilePath);
+        assertTrue(isImporting.await(10, TimeUnit.SECONDS));
+
+        long closeStart = System.nanoTime();
+        spool.close();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - closeStart) < 1000); // No backoff on close
+        assertEquals(1, imports.size());
+        assertTrue(spool.isPending(parquetFilePath));
+        assertEquals(1, spool.getPendingFileCount());
+
+        // The next run imports the file left in the spool
+        CountDownLatch isImported = new CountDownLatch(1);
+        IndexingSpool reopenedSpool = new IndexingSpool(spoolDirectory, importedFilePath -> {
+            imports.add(importedFilePath);
+            isImported.countDown();
+        });
+        assertTrue(isImported.await(10, TimeUnit.SECONDS));
+        while (reopenedSpool.isPending(parquetFilePath)) Thread.sleep(10); // Until the marker is deleted
+        reopenedSpool.close();
+        assertEquals(List.of(parquetFilePath, parquetFilePath), List.copyOf(imports));
+    }
+
+    @Test
+    void aFileWhichKeepsFailingIsMovedToTheDeadLetters() throws IOException, InterruptedException {
+        String rejectedFilePath = Files.createFile(directory.resolve("weather_data_0.parquet")).toString();
+        String importedFilePath = Files.createFile(directory.resolve("weather_data_1.parquet")).toString();
+        Path spoolDirectory = directory.resolve("indexing_spool");
+        Queue<String> imports = new ConcurrentLinkedQueue<>();
+        IndexingSpool spool = new IndexingSpool(spoolDirectory.toString(), filePath -> {
+            if (filePath.equals(rejectedFilePath)) throw new IllegalStateException("Rejected by elasticsearch");
+            imports.add(filePath);
+        }, 1);
+        spool.add(rejectedFilePath);
+        spool.add(importedFilePath);
+
+        long start = System.nanoTime();
+        while ((spool.isPending(rejectedFilePath) || spool.isPending(importedFilePath))
+                && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) Thread.sleep(10);
+        spool.close();
+        assertEquals(List.of(importedFilePath), List.copyOf(imports));
+        assertFalse(spool.isPending(rejectedFilePath));
+        assertEquals(0, spool.getPendingFileCount());
+        try (Stream<Path> deadLetters = Files.list(spoolDirectory.resolve("dead_letters"))) {
+            assertEquals(1, deadLetters.count());
+        }
+    }
+}
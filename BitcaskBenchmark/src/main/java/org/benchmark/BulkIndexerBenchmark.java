@@ -0,0 +1,140 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RestHighLevelClientBuilder;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.service.BulkIndexer;
+import org.service.ParquetWriterManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the documents per second indexed by the bulk indexer with different numbers of concurrent
+ * bulk requests. Elasticsearch is stood in by a local HTTP server which answers every bulk request
+ * with all its documents created after the (bulk latency), as a cluster which takes time to index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkIndexerBenchmark {
+
+    private static final int DOCUMENT_COUNT = 10_000; // The documents indexed by each invocation
+    private static final String INDEX_NAME = "weather_data";
+
+    @Param({"1", "2", "4", "8"})
+    public int concurrentRequests;
+
+    @Param({"1000"})
+    public int documentsPerRequest;
+
+    @Param({"5"})
+    public int bulkLatencyMillis;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private RestHighLevelClient client;
+    private GenericRecord[] records;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.serverExecutor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(serverExecutor);
+        this.server.start();
+        this.client = new RestHighLevelClientBuilder(RestClient.builder
+                (new HttpHost("localhost", server.getAddress().getPort())).build())
+                .setApiCompatibilityMode(true)
+                .build();
+        this.records = new GenericRecord[DOCUMENT_COUNT];
+        for (int i = 0 ; i < DOCUMENT_COUNT ; i++)
+            records[i] = ParquetWriterManager.toAvroRecord(new JSONObject(Dataset.message(i, 1)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENT_COUNT)
+    public long index() throws InterruptedException {
+        BulkIndexer bulkIndexer = new BulkIndexer(client, INDEX_NAME,
+                new BulkIndexer.Settings(documentsPerRequest, 5*1024*1024, concurrentRequests, 5, 100));
+        for (GenericRecord record : records) bulkIndexer.add(record);
+        bulkIndexer.close();
+        return bulkIndexer.getIndexedDocuments();
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Answers the product check of the client (GET /) and the bulk requests (all the documents created).
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String response;
+        if (exchange.getRequestURI().getPath().endsWith("_bulk")) {
+            int documentCount = countDocuments(exchange.getRequestBody());
+            StringBuilder items = new StringBuilder();
+            for (int i = 0 ; i < documentCount ; i++) {
+                if (i > 0) items.append(',');
+                items.append("{\"index\":{\"_index\":\"").append(INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"")
+                        .append(i).append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,")
+                        .append("\"successful\":1,\"failed\":0},\"_seq_no\":").append(i)
+                        .append(",\"_primary_term\":1,\"status\":201}}");
+            }
+            response = "{\"took\":" + bulkLatencyMillis + ",\"errors\":false,\"items\":[" + items + "]}";
+            try {
+                Thread.sleep(bulkLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else response = "{\"name\":\"stand-in\",\"cluster_name\":\"benchmark\",\"cluster_uuid\":\"benchmark\","
+                + "\"version\":{\"number\":\"7.17.15\",\"build_flavor\":\"default\",\"build_type\":\"tar\","
+                + "\"build_hash\":\"0\",\"build_date\":\"2023-01-01T00:00:00.000Z\",\"build_snapshot\":false,"
+                + "\"lucene_version\":\"8.11.1\",\"minimum_wire_compatibility_version\":\"6.8.0\","
+                + "\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},\"tagline\":\"You Know, for Search\"}";
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * Counts the documents of a bulk request body (an action line followed by a source line per document).
+     */
+    private static int countDocuments(InputStream requestBody) throws IOException {
+        int lineCount = 0;
+        for (byte b : requestBody.readAllBytes()) if (b == '\n') lineCount++;
+        return lineCount / 2;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the codecs of the values: raw (no compression), deflate and deflate with a preset dictionary
+ * trained on sample station messages. Measures the latency of the puts (overwriting the keys one after the
+ * other) and of the gets (keys read uniformly at random) over a populated dataset, and prints the size of
+ * the dataset on disk per key when the benchmark starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    // Constants
+    private static final int READ_SEQUENCE_SIZE = 1 << 20; // The number of precomputed random key indexes
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    @Param({"raw", "deflate", "deflate_dictionary"})
+    public String codec;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+    private byte[][] keys;
+    private byte[][] values;
+    private int[] reads;
+    private int nextPut;
+    private int nextGet;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] dictionary = codec.equals("deflate_dictionary") ? Dataset.dictionary() : null;
+        this.store = new BitcaskStoreImpl(BitcaskStoreImpl.DEFAULT_GROUP_COMMIT_MAX_ENTRIES,
+                BitcaskStoreImpl.DEFAULT_GROUP_COMMIT_WINDOW_MICROS, dictionary);
+        this.directory = Dataset.createDirectory();
+        this.keys = Dataset.keys(keyCount);
+        List<BitcaskStore.OPTIONS> options = new ArrayList<>(List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        if (! codec.equals("raw")) options.add(BitcaskStore.OPTIONS.COMPRESSION_OPTION);
+        this.handle = store.open(directory.toString(), options);
+        Dataset.populate(store, handle, keys, valueSize, 1);
+        store.sync(handle);
+        System.out.println("\nThe dataset takes (" + Dataset.directorySize(directory) / keyCount + ") bytes per key on disk.");
+
+        this.values = new byte[keyCount][];
+        for (int i = 0 ; i < keyCount ; i++) values[i] = Dataset.value(i, 1, valueSize);
+        SplittableRandom random = new SplittableRandom(keyCount);
+        this.reads = new int[READ_SEQUENCE_SIZE];
+        for (int i = 0 ; i < READ_SEQUENCE_SIZE ; i++) reads[i] = random.nextInt(keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close(handle);
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean put() {
+        int index = nextPut;
+        nextPut = (index + 1 == keyCount) ? 0 : index + 1;
+        return store.put(handle, keys[index], values[index]);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        int index = nextGet;
+        nextGet = (index + 1) & (READ_SEQUENCE_SIZE - 1);
+        return store.get(handle, keys[reads[index]]);
+    }
+}
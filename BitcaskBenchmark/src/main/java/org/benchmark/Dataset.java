@@ -0,0 +1,157 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.store.BitCaskHandle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Generates the datasets of the benchmarks: (key count) station keys whose values are station
+ * status messages padded to (value size) bytes. The datasets are stored in temporary directories
+ * which are deleted by the benchmarks after each trial.
+ */
+final class Dataset {
+
+    // Constants
+    private static final int BATCH_SIZE = 10_000; // The number of entries written per putAll
+    private static final long SEED = 1019; // Fixed seed so every run generates the same dataset
+    private static final int DICTIONARY_SAMPLE_COUNT = 16; // The number of messages the dictionary is trained on
+
+    private Dataset() {}
+
+    /**
+     * Returns the keys of a dataset of the given size.
+     */
+    static byte[][] keys(int keyCount) {
+        byte[][] keys = new byte[keyCount][];
+        for (int i = 0 ; i < keyCount ; i++) keys[i] = ("station_" + i).getBytes(StandardCharsets.UTF_8);
+        return keys;
+    }
+
+    /**
+     * Returns a station status message (of the given version) as the JSON text sent by the stations.
+     */
+    static String message(int index, int version) {
+        SplittableRandom random = new SplittableRandom(SEED + 31L * index + version);
+        return "{\"station_id\":" + index + ",\"s_no\":" + version
+                + ",\"battery_status\":\"" + (random.nextBoolean() ? "low" : "high") + "\""
+                + ",\"status_timestamp\":" + (1689523200 + version)
+                + ",\"weather\":{\"humidity\":" + random.nextInt(100) + ",\"temperature\":" + random.nextInt(120)
+                + ",\"wind_speed\":" + random.nextInt(60) + "}}";
+    }
+
+    /**
+     * Returns a compression dictionary trained on sample messages (the messages of a few stations, which
+     * share the field names and the common values of every message).
+     */
+    static byte[] dictionary() {
+        StringBuilder samples = new StringBuilder();
+        for (int i = 0 ; i < DICTIONARY_SAMPLE_COUNT ; i++) samples.append(message(i, i));
+        return samples.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a station status message (of the given version) padded to the given size in bytes.
+     */
+    static byte[] value(int index, int version, int valueSize) {
+        byte[] bytes = message(index, version).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= valueSize) return Arrays.copyOf(bytes, valueSize);
+        byte[] value = Arrays.copyOf(bytes, valueSize);
+        Arrays.fill(value, bytes.length, valueSize, (byte) ' ');
+        return value;
+    }
+
+    /**
+     * Writes (versions) values for each of the given keys, so all the records but the last version of
+     * each key are dead. The versions are written one after the other (as the stations report).
+     */
+    static void populate(BitcaskStore store, BitCaskHandle handle, byte[][] keys, int valueSize, int versions) {
+        List<Map.Entry<byte[], byte[]>> batch = new ArrayList<>(BATCH_SIZE);
+        for (int version = 0 ; version < versions ; version++) {
+            for (int i = 0 ; i < keys.length ; i++) {
+                batch.add(new AbstractMap.SimpleImmutableEntry<>(keys[i], value(i, version, valueSize)));
+                if (batch.size() == BATCH_SIZE) {
+                    if (! store.putAll(handle, batch)) throw new RuntimeException("Couldn't populate the dataset");
+                    batch.clear();
+                }
+            }
+        }
+        if (! batch.isEmpty() && ! store.putAll(handle, batch)) throw new RuntimeException("Couldn't populate the dataset");
+    }
+
+    /**
+     * Returns the given comma separated option names (e.g. "MMAP_READ_OPTION,VALUE_CACHE_OPTION")
+     * along with the given options.
+     */
+    static List<BitcaskStore.OPTIONS> options(String optionNames, BitcaskStore.OPTIONS... options) {
+        List<BitcaskStore.OPTIONS> parsedOptions = new ArrayList<>(Arrays.asList(options));
+        for (String optionName : optionNames.split(","))
+            if (! optionName.isBlank()) parsedOptions.add(BitcaskStore.OPTIONS.valueOf(optionName.trim()));
+        return parsedOptions;
+    }
+
+    /**
+     * Returns the total size in bytes of the files in the given directory.
+     */
+    static long directorySize(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            long size = 0;
+            for (Path path : paths.filter(Files::isRegularFile).toList()) size += Files.size(path);
+            return size;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the heap used by the reachable objects (after collecting the garbage) in bytes.
+     */
+    static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedBytes = Long.MAX_VALUE;
+        for (int i = 0 ; i < 3 ; i++) { // A single collection may leave some garbage behind
+            System.gc();
+            usedBytes = Math.min(usedBytes, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return usedBytes;
+    }
+
+    /**
+     * Creates a new empty temporary directory.
+     */
+    static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("bitcask-benchmark-");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the given directory and all its contents.
+     */
+    static void deleteDirectory(Path directory) {
+        if (directory == null || ! Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to delete every key of a freshly populated dataset (one delete per key),
+ * the dataset is populated again before each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128"})
+    public int valueSize;
+
+    @Param({"", "GROUP_COMMIT_OPTION"})
+    public String options;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+    private byte[][] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new BitcaskStoreImpl();
+        this.keys = Dataset.keys(keyCount);
+    }
+
+    @Setup(Level.Invocation)
+    public void populate() {
+        this.directory = Dataset.createDirectory();
+        this.handle = store.open(directory.toString(),
+                Dataset.options(options, BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        Dataset.populate(store, handle, keys, valueSize, 1);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        // Closing stops the handle's merge and group commit threads, so they don't pile up across the invocations
+        if (! store.close(handle)) throw new RuntimeException("Couldn't close the dataset");
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int deleteAll() {
+        int deleted = 0;
+        for (byte[] key : keys) if (store.delete(handle, key)) deleted++;
+        return deleted;
+    }
+}
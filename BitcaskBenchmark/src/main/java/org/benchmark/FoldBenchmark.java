@@ -0,0 +1,77 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the time to fold over all the keys and values of a populated dataset in which every
+ * key was written (versions) times, so the fold has to skip the dead records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoldBenchmark {
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    @Param({"2"})
+    public int versions;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new BitcaskStoreImpl();
+        this.directory = Dataset.createDirectory();
+        BitCaskHandle writer = store.open(directory.toString(), Dataset.options("", BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        Dataset.populate(store, writer, Dataset.keys(keyCount), valueSize, versions);
+        store.close(writer);
+        this.handle = store.open(directory.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close(handle);
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void foldBytes(Blackhole blackhole) {
+        store.foldBytes(handle, (key, value) -> blackhole.consume(value.get(value.position())));
+    }
+
+    @Benchmark
+    public long foldBytesParallel() {
+        LongAdder foldedBytes = new LongAdder(); // The blackhole mustn't be shared between the folding threads
+        store.foldBytesParallel(handle, (key, value) -> foldedBytes.add(value.get(value.position())));
+        return foldedBytes.sum();
+    }
+
+    @Benchmark
+    public void fold(Blackhole blackhole) {
+        store.fold(handle, (key, value) -> {
+            blackhole.consume(value);
+            return null;
+        });
+    }
+}
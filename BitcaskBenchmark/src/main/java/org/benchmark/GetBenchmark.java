@@ -0,0 +1,138 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the gets from a read-only handle over a populated dataset.
+ * Hot gets read a small set of keys over and over (served from the value cache or the page cache),
+ * cold gets read keys uniformly at random from the whole dataset and zipf gets read keys following
+ * a Zipf distribution (a few stations are read most of the time, as by a dashboard). The dataset is
+ * written with the same options, so the compression option measures the gets of compressed values
+ * (the size of the dataset on disk is printed when the benchmark starts).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetBenchmark {
+
+    // Constants
+    private static final int HOT_KEY_COUNT = 1024; // The number of keys read by the hot gets
+    private static final int READ_SEQUENCE_SIZE = 1 << 20; // The number of precomputed random key indexes
+    private static final double ZIPF_EXPONENT = 0.99; // The skew of the zipf gets (as in YCSB)
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    @Param({"", "MMAP_READ_OPTION", "VALUE_CACHE_OPTION", "COMPRESSION_OPTION"})
+    public String options;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+    private byte[][] keys;
+    private int[] hotReads;
+    private int[] coldReads;
+    private int[] zipfReads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new BitcaskStoreImpl();
+        this.directory = Dataset.createDirectory();
+        this.keys = Dataset.keys(keyCount);
+        BitCaskHandle writer = store.open(directory.toString(),
+                Dataset.options(options, BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        Dataset.populate(store, writer, keys, valueSize, 1);
+        store.close(writer);
+        System.out.println("\nThe dataset takes (" + Dataset.directorySize(directory) + ") bytes on disk.");
+        this.handle = store.open(directory.toString(), Dataset.options(options));
+
+        SplittableRandom random = new SplittableRandom(keyCount);
+        this.hotReads = new int[READ_SEQUENCE_SIZE];
+        this.coldReads = new int[READ_SEQUENCE_SIZE];
+        this.zipfReads = new int[READ_SEQUENCE_SIZE];
+        double[] zipfDistribution = zipfDistribution();
+        int[] keyOfRank = shuffledIndexes(random); // The popular stations are spread over the data files
+        for (int i = 0 ; i < READ_SEQUENCE_SIZE ; i++) {
+            hotReads[i] = random.nextInt(Math.min(HOT_KEY_COUNT, keyCount));
+            coldReads[i] = random.nextInt(keyCount);
+            int rank = Arrays.binarySearch(zipfDistribution, random.nextDouble());
+            zipfReads[i] = keyOfRank[Math.min((rank < 0) ? -rank - 1 : rank, keyCount - 1)];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close(handle);
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public byte[] getHot() {
+        return store.get(handle, keys[hotReads[nextRead()]]);
+    }
+
+    @Benchmark
+    public byte[] getCold() {
+        return store.get(handle, keys[coldReads[nextRead()]]);
+    }
+
+    @Benchmark
+    public byte[] getZipf() {
+        return store.get(handle, keys[zipfReads[nextRead()]]);
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Returns the cumulative distribution of the key ranks (the probability of rank k is proportional to 1/k^s).
+     */
+    private double[] zipfDistribution() {
+        double[] distribution = new double[keyCount];
+        double sum = 0;
+        for (int rank = 0 ; rank < keyCount ; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            distribution[rank] = sum;
+        }
+        for (int rank = 0 ; rank < keyCount ; rank++) distribution[rank] /= sum;
+        return distribution;
+    }
+
+    private int[] shuffledIndexes(SplittableRandom random) {
+        int[] indexes = new int[keyCount];
+        for (int i = 0 ; i < keyCount ; i++) indexes[i] = i;
+        for (int i = keyCount - 1 ; i > 0 ; i--) {
+            int j = random.nextInt(i + 1);
+            int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+        return indexes;
+    }
+
+    private int nextRead() {
+        int index = next;
+        next = (index + 1) & (READ_SEQUENCE_SIZE - 1);
+        return index;
+    }
+}
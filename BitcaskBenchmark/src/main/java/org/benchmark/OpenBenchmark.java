@@ -0,0 +1,79 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to open (recover) a populated dataset, either by scanning all its data files
+ * or by reading the hint files which are written when the dataset is merged. The heap used by the
+ * key-dir of the opened handle (in bytes per key) is printed when the benchmark starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int keyCount;
+
+    @Param({"128"})
+    public int valueSize;
+
+    @Param({"false", "true"})
+    public boolean merged;
+
+    @Param({"", "COMPACT_KEYDIR_OPTION"})
+    public String options;
+
+    private BitcaskStore store;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new BitcaskStoreImpl();
+        this.directory = Dataset.createDirectory();
+        BitCaskHandle writer = store.open(directory.toString(), Dataset.options("", BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        Dataset.populate(store, writer, Dataset.keys(keyCount), valueSize, 1);
+        if (merged && ! store.merge(writer)) throw new RuntimeException("Couldn't merge the dataset");
+        store.close(writer);
+        printKeyDirFootprint();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void open() {
+        BitCaskHandle handle = store.open(directory.toString(), Dataset.options(options));
+        store.close(handle);
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Prints the heap retained by an open handle of the dataset (mostly its key-dir) per key.
+     */
+    private void printKeyDirFootprint() {
+        long usedBytesBefore = Dataset.usedHeapBytes();
+        BitCaskHandle handle = store.open(directory.toString(), Dataset.options(options));
+        long usedBytesAfter = Dataset.usedHeapBytes();
+        System.out.println("\nThe key-dir takes (" + (usedBytesAfter - usedBytesBefore) / keyCount + ") bytes per key.");
+        store.close(handle);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.service.ParquetCompactor;
+import org.service.ParquetWriterManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time of a full scan of the parquet archive (reading all the records of all its files) with
+ * the (small_files) layout written by the partitions' writers (a small file per (records per file) records)
+ * and with the (compacted) layout of the parquet compactor (large sorted files per date).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParquetScanBenchmark {
+
+    private static final int STATION_COUNT = 1000;
+    private static final ParquetCompactor.Settings COMPACTION_SETTINGS = new ParquetCompactor.Settings
+            (0, Long.MAX_VALUE, 4, 256*1024*1024, 64*1024*1024, 1024*1024);
+
+    @Param({"small_files", "compacted"})
+    public String layout;
+
+    @Param({"500"})
+    public int fileCount;
+
+    @Param({"1000"})
+    public int recordsPerFile;
+
+    private Path directory;
+    private List<Path> parquetFiles;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Schema schema = new Schema.Parser().parse(ParquetScanBenchmark.class.getClassLoader()
+                .getResource("AvroSchema.avsc").openStream());
+        this.directory = Dataset.createDirectory();
+        Path partitionDirectory = Files.createDirectories(directory.resolve("partition_0"));
+        // The stations report one after the other, so each file has a status message of many stations
+        for (int file = 0 ; file < fileCount ; file++) {
+            try (ParquetWriter<GenericRecord> parquetWriter = AvroParquetWriter
+                    .<GenericRecord>builder(new org.apache.hadoop.fs.Path(partitionDirectory + "/" + file + ".parquet"))
+                    .withConf(new Configuration())
+                    .withCompressionCodec(CompressionCodecName.SNAPPY)
+                    .withSchema(schema)
+                    .build()) {
+                for (int i = file * recordsPerFile ; i < (file + 1) * recordsPerFile ; i++)
+                    parquetWriter.write(ParquetWriterManager.toAvroRecord
+                            (new JSONObject(Dataset.message(i % STATION_COUNT, i / STATION_COUNT))));
+            }
+        }
+        if (layout.equals("compacted"))
+            new ParquetCompactor(directory.toString(), COMPACTION_SETTINGS, parquetFilePath -> false).compact();
+        this.parquetFiles = listParquetFiles();
+        System.out.println("\nThe (" + layout + ") archive has (" + parquetFiles.size() + ") files.");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        long temperatureSum = 0;
+        for (Path parquetFile : parquetFiles) {
+            try (ParquetReader<GenericRecord> parquetReader = AvroParquetReader.<GenericRecord>builder
+                            (HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(parquetFile.toString()), new Configuration()))
+                    .withDataModel(GenericData.get())
+                    .build()) {
+                GenericRecord record;
+                while ((record = parquetReader.read()) != null) temperatureSum += (Integer) record.get("Temperature");
+            }
+        }
+        return temperatureSum;
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Lists the visible parquet files of the archive (the hidden ones are skipped as by the parquet readers).
+     */
+    private List<Path> listParquetFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".parquet"))
+                    .filter(path -> ! path.getFileName().toString().startsWith("_"))
+                    .filter(path -> ! path.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
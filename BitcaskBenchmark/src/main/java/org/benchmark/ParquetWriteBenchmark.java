@@ -0,0 +1,115 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.service.ParquetWriterManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput (records per second) of the parquet path of the base central station: the
+ * conversion of the decoded JSON messages to Avro records and their writing in a parquet file. The
+ * (json_decoder) conversion is the former one (flattened JSONObject re-parsed by an Avro JSON decoder)
+ * and the (direct) conversion is the current one (fields set by their positions in the schema).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParquetWriteBenchmark {
+
+    @Param({"1024"})
+    public int messageCount;
+
+    @Param({"json_decoder", "direct"})
+    public String conversion;
+
+    private Schema schema;
+    private JSONObject[] messages;
+    private Path directory;
+    private ParquetWriter<GenericRecord> parquetWriter;
+    private int fileCount;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.schema = new Schema.Parser().parse(ParquetWriteBenchmark.class.getClassLoader()
+                .getResource("AvroSchema.avsc").openStream());
+        this.messages = new JSONObject[messageCount];
+        for (int i = 0 ; i < messageCount ; i++) messages[i] = new JSONObject(Dataset.message(i, 1));
+        this.directory = Dataset.createDirectory();
+    }
+
+    @Setup(Level.Iteration)
+    public void openFile() throws IOException {
+        this.parquetWriter = AvroParquetWriter
+                .<GenericRecord>builder(new org.apache.hadoop.fs.Path(directory + "/" + (fileCount++) + ".parquet"))
+                .withConf(new Configuration())
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withSchema(schema)
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFile() throws IOException {
+        parquetWriter.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        int index = next;
+        next = (index + 1 == messageCount) ? 0 : index + 1;
+        GenericRecord avroRecord = conversion.equals("direct")
+                ? ParquetWriterManager.toAvroRecord(messages[index])
+                : jsonDecoderRecord(messages[index]);
+        parquetWriter.write(avroRecord);
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Converts the given message as the former parquet path did: flattens it in a new JSONObject then
+     * parses its text using a new Avro JSON decoder and datum reader.
+     */
+    private GenericRecord jsonDecoderRecord(JSONObject response) {
+        JSONObject weatherObject = response.getJSONObject("weather");
+        JSONObject flattenedResponse = new JSONObject()
+                .put("Station_ID", response.getLong("station_id"))
+                .put("Sequence_Number", response.getLong("s_no"))
+                .put("Battery_Status", response.getString("battery_status"))
+                .put("Timestamp", response.getLong("status_timestamp"))
+                .put("Humidity", weatherObject.getInt("humidity"))
+                .put("Temperature", weatherObject.getInt("temperature"))
+                .put("Wind_Speed", weatherObject.getInt("wind_speed"));
+        try {
+            return new SpecificDatumReader<GenericRecord>(schema)
+                    .read(null, DecoderFactory.get().jsonDecoder(schema, flattenedResponse.toString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
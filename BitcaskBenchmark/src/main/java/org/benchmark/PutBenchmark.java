@@ -0,0 +1,66 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.store.BitCaskHandle;
+import org.store.BitcaskStoreImpl;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the puts which overwrite the keys of the dataset one after the
+ * other, with no sync (buffered), sync on put (flushed) and group commit (forced to disk).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PutBenchmark {
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    @Param({"", "SYNC_ON_PUT_OPTION", "GROUP_COMMIT_OPTION", "COMPRESSION_OPTION"})
+    public String options;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+    private byte[][] keys;
+    private byte[][] values;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new BitcaskStoreImpl();
+        this.directory = Dataset.createDirectory();
+        this.handle = store.open(directory.toString(),
+                Dataset.options(options, BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        this.keys = Dataset.keys(keyCount);
+        this.values = new byte[keyCount][];
+        for (int i = 0 ; i < keyCount ; i++) values[i] = Dataset.value(i, 1, valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close(handle);
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean put() {
+        int index = next;
+        next = (index + 1 == keyCount) ? 0 : index + 1;
+        return store.put(handle, keys[index], values[index]);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the read paths of the values in a data file: the former path which opened a stream on the data
+ * file for each get (skipping to the value then closing the stream) and the current one which reads the
+ * value with a positional read on a channel kept open and shared by the readers. The values are read at
+ * random positions of a data file of (key count) values, run it with several threads (e.g. -t 4) to measure
+ * concurrent readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    // Constants
+    private static final int READ_SEQUENCE_SIZE = 1 << 20; // The number of precomputed random value indexes
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    private Path directory;
+    private Path dataFile;
+    private FileChannel channel; // Shared by the readers of the positional reads
+    private int[] reads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.directory = Dataset.createDirectory();
+        this.dataFile = directory.resolve("epoch_0_0");
+        try (OutputStream outputStream = Files.newOutputStream(dataFile)) {
+            for (int i = 0 ; i < keyCount ; i++) outputStream.write(Dataset.value(i, 0, valueSize));
+        }
+        this.channel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        SplittableRandom random = new SplittableRandom(keyCount);
+        this.reads = new int[READ_SEQUENCE_SIZE];
+        for (int i = 0 ; i < READ_SEQUENCE_SIZE ; i++) reads[i] = random.nextInt(keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public byte[] streamRead() throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(dataFile.toFile())) {
+            inputStream.skipNBytes((long) reads[nextRead()] * valueSize);
+            return inputStream.readNBytes(valueSize);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer positionalRead() throws IOException {
+        long position = (long) reads[nextRead()] * valueSize;
+        ByteBuffer buffer = ByteBuffer.allocate(valueSize);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        return buffer.flip();
+    }
+
+    //
+    // Private Methods
+    //
+
+    private int nextRead() {
+        int index = next;
+        next = (index + 1) & (READ_SEQUENCE_SIZE - 1);
+        return index;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.api.BitcaskStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.store.BitCaskHandle;
+import org.store.ShardedBitcaskStore;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the put throughput of concurrent writers scales with the number of shards.
+ * Each writer thread overwrites its own range of keys (as a consumer of its own stations).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ShardedPutBenchmark {
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"128"})
+    public int valueSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"", "GROUP_COMMIT_OPTION"})
+    public String options;
+
+    private BitcaskStore store;
+    private BitCaskHandle handle;
+    private Path directory;
+    private byte[][] keys;
+    private byte[][] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.store = new ShardedBitcaskStore(shards);
+        this.directory = Dataset.createDirectory();
+        this.handle = store.open(directory.toString(),
+                Dataset.options(options, BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        this.keys = Dataset.keys(keyCount);
+        this.values = new byte[keyCount][];
+        for (int i = 0 ; i < keyCount ; i++) values[i] = Dataset.value(i, 1, valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close(handle);
+        Dataset.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean put(Writer writer) {
+        int index = writer.next();
+        return store.put(handle, keys[index], values[index]);
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * The state of each writer thread which cycles over its own range of keys.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private int first;
+        private int count;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(ShardedPutBenchmark benchmark, ThreadParams threadParams) {
+            this.count = benchmark.keyCount / threadParams.getThreadCount();
+            this.first = threadParams.getThreadIndex() * count;
+        }
+
+        int next() {
+            int index = first + next;
+            next = (next + 1 == count) ? 0 : next + 1;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.benchmark;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.service.WeatherMessageDeserializer;
+import org.service.WeatherMessageSerializer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the wire formats of the weather messages (json and avro): the CPU time per message of
+ * the serialization by the weather stations and of the deserialization (to parquet records) by the
+ * base central station. The average size in bytes of the serialized messages is printed when each
+ * trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final String TOPIC = "weather_data_topic";
+
+    @Param({"1024"})
+    public int messageCount;
+
+    @Param({"json", "avro"})
+    public String messageFormat;
+
+    private WeatherMessageSerializer serializer;
+    private WeatherMessageDeserializer deserializer;
+    private JSONObject[] messages;
+    private byte[][] serializedMessages;
+    private Headers headers; // The headers written by the serializer (the message format)
+    private int nextSerialized;
+    private int nextDeserialized;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.serializer = new WeatherMessageSerializer();
+        this.serializer.configure(Map.of(WeatherMessageSerializer.MESSAGE_FORMAT_CONFIG, messageFormat), false);
+        this.deserializer = new WeatherMessageDeserializer();
+        this.messages = new JSONObject[messageCount];
+        this.serializedMessages = new byte[messageCount][];
+        this.headers = new RecordHeaders();
+        long totalBytes = 0;
+        for (int i = 0 ; i < messageCount ; i++) {
+            messages[i] = new JSONObject(Dataset.message(i, 1));
+            serializedMessages[i] = serializer.serialize(TOPIC, new RecordHeaders(), messages[i]);
+            totalBytes += serializedMessages[i].length;
+        }
+        serializer.serialize(TOPIC, headers, messages[0]);
+        System.out.println("Average message size (" + messageFormat + "): " + (totalBytes / messageCount) + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        int index = nextSerialized;
+        nextSerialized = (index + 1 == messageCount) ? 0 : index + 1;
+        return serializer.serialize(TOPIC, new RecordHeaders(), messages[index]);
+    }
+
+    @Benchmark
+    public GenericRecord deserialize() {
+        int index = nextDeserialized;
+        nextDeserialized = (index + 1 == messageCount) ? 0 : index + 1;
+        return deserializer.deserialize(TOPIC, headers, serializedMessages[index]);
+    }
+}
@@ -7,11 +7,17 @@ package org.api;
 import org.store.BitCaskHandle;
 import org.store.BitcaskStoreImpl;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
 /**
  * Declaration of the API described by the https://riak.com/assets/bitcask-intro.pdf.
+ * Keys and values are binary, the String API stores them UTF-8 encoded.
  */
 public interface BitcaskStore {
 
@@ -20,7 +26,19 @@ public interface BitcaskStore {
         // provides read/write to the handler
         READ_WRITE_OPTION,
         // always flush the output stream after each write
-        SYNC_ON_PUT_OPTION
+        SYNC_ON_PUT_OPTION,
+        // memory-maps the sealed data files and serves their values from the mapped buffers
+        MMAP_READ_OPTION,
+        // stores the key directory in primitive arrays instead of a hash map (less memory per key)
+        COMPACT_KEYDIR_OPTION,
+        // merges the store in the background when the merge policy (sealed files count, dead bytes ratio) is met
+        AUTO_MERGE_OPTION,
+        // coalesces concurrent puts into group commits which are forced to disk once per commit
+        GROUP_COMMIT_OPTION,
+        // caches the recently read values in memory (bounded by their total size in bytes)
+        VALUE_CACHE_OPTION,
+        // compresses the written values (using the store's preset dictionary if it has one)
+        COMPRESSION_OPTION
     }
 
     /**
@@ -28,6 +46,25 @@ public interface BitcaskStore {
      * Valid options include read_write (if this process is going to be a
      * writer and not just a reader) and sync_on_put (if this writer would
      * prefer to sync the write file after every write operation).
+     * The mmap_read option memory-maps the sealed (immutable) data files
+     * and serves reads from them as slices of the mapped buffers, only
+     * the active data file is read using file channels. The compact_keydir
+     * option keeps the key directory in compact primitive arrays which
+     * allocate no objects per key (suitable for a very large number of keys).
+     * The auto_merge option lets the writer schedule background merges when
+     * there are many unmerged data files or many overwritten/deleted records.
+     * The group_commit option makes every put durable (forced to disk) by
+     * coalescing the puts of concurrent callers into a single write and
+     * force per commit window (the window and the maximum entries per
+     * commit are set when creating the { @link BitcaskStoreImpl }).
+     * The value_cache option keeps the most recently read values in a
+     * size-bounded LRU cache, cached values are invalidated when their keys
+     * are written or deleted (the statistics are available from the handle).
+     * The compression option deflates the written values which shrink when
+     * compressed (with the preset dictionary given when creating the
+     * { @link BitcaskStoreImpl }, if any) and flags their records, so
+     * compressed and raw records can be read regardless of the option
+     * (merges copy them as they are).
      * The directory must be readable and writable by this process, and
      * only one process may open a Bitcask with read write at a time.
      */
@@ -44,18 +81,58 @@ public interface BitcaskStore {
      */
     String get(BitCaskHandle bitCaskHandle, String key);
 
+    /**
+     * Retrieves a value by binary key from a Bitcask datastore.
+     */
+    byte[] get(BitCaskHandle bitCaskHandle, byte[] key);
+
     /**
      * Stores a key and value in a Bitcask datastore.
      * Returns true if the operation is successful and false otherwise.
      */
     boolean put(BitCaskHandle bitCaskHandle, String key, String value);
 
+    /**
+     * Stores a binary key and value in a Bitcask datastore, the arrays
+     * mustn't be modified afterwards.
+     * Returns true if the operation is successful and false otherwise.
+     */
+    boolean put(BitCaskHandle bitCaskHandle, byte[] key, byte[] value);
+
+    /**
+     * Stores a key and value in a Bitcask datastore without waiting for the write.
+     * The returned future completes with true once the entry is written (and
+     * forced to disk with the group_commit option) and false otherwise.
+     */
+    CompletableFuture<Boolean> putAsync(BitCaskHandle bitCaskHandle, String key, String value);
+
+    /**
+     * Stores all the given keys and values in a Bitcask datastore as a single
+     * commit which is written at once (and forced to disk once with the
+     * group_commit option).
+     * Returns true if the operation is successful and false otherwise.
+     */
+    boolean putAll(BitCaskHandle bitCaskHandle, Map<String, String> entries);
+
+    /**
+     * Stores all the given binary keys and values in a Bitcask datastore as
+     * a single commit (entries with the same key are written in order).
+     * Returns true if the operation is successful and false otherwise.
+     */
+    boolean putAll(BitCaskHandle bitCaskHandle, Collection<Map.Entry<byte[], byte[]>> entries);
+
     /**
      * Delete a key from a Bitcask datastore.
      * Returns true if the operation is successful and false otherwise.
      */
     boolean delete(BitCaskHandle bitCaskHandle, String key);
 
+    /**
+     * Delete a binary key from a Bitcask datastore.
+     * Returns true if the operation is successful and false otherwise.
+     */
+    boolean delete(BitCaskHandle bitCaskHandle, byte[] key);
+
     /**
      * Lists all keys in a Bitcask datastore.
      */
@@ -64,18 +141,24 @@ public interface BitcaskStore {
     /**
      * Merge several data files within a Bitcask datastore into a more
      * compact form. Also, produce hint-files for faster startup.
+     * The merge runs on a background thread and only touches the sealed
+     * data files so writes from other threads continue while merging,
+     * this call waits for the merge to finish.
      * Returns true if the operation is successful and false otherwise.
      */
     boolean merge(BitCaskHandle bitCaskHandle);
 
     /**
-     * Force any writes to sync to disk.
+     * Force any writes to sync to disk (fsync of the data files written since
+     * the last sync and of the directory entries of the created data files).
      * Returns true if the operation is successful and false otherwise.
      */
     boolean sync(BitCaskHandle bitCaskHandle);
 
     /**
      * Close a Bitcask data store and flush all pending writes (if any) to disk.
+     * Waits for the running merge (if any) to finish. Once the handle is closed,
+     * getting, putting or deleting throws an IllegalStateException.
      * Returns true if the operation is successful and false otherwise.
      */
     boolean close(BitCaskHandle bitCaskHandle);
@@ -84,4 +167,19 @@ public interface BitcaskStore {
      * Folds over all K/V pairs in a Bitcask datastore.
      */
     void fold(BitCaskHandle bitCaskHandle, BiFunction<String, String, Void> function);
+
+    /**
+     * Folds over all binary K/V pairs in a Bitcask datastore as of the moment
+     * the fold starts. The data files are read sequentially (not one random
+     * read per key) and the buffers are reused read-only views which are only
+     * valid during the call.
+     */
+    void foldBytes(BitCaskHandle bitCaskHandle, BiConsumer<ByteBuffer, ByteBuffer> function);
+
+    /**
+     * Same as foldBytes but the data files are folded in parallel on the common
+     * fork-join pool, so the function must be thread-safe and the pairs are
+     * folded in no specific order.
+     */
+    void foldBytesParallel(BitCaskHandle bitCaskHandle, BiConsumer<ByteBuffer, ByteBuffer> function);
 }
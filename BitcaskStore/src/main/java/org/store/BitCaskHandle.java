@@ -4,315 +4,104 @@
 
 package org.store;
 
-import java.io.*;
-import java.util.*;
-import java.util.function.BiFunction;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
 /**
- * Handler for a bitcask directory, performs all R/W operations.
+ * Handle of an open bitcask store, either a single bitcask directory ({ @link BitCaskHandleImpl })
+ * or a sharded one ({ @link ShardedBitCaskHandle }). The handles are opened by the stores which
+ * perform their operations through it, so the handles can't be implemented elsewhere.
  */
-public class BitCaskHandle {
-
-    private final Map<String, KeyDirRecord> keyDir;
-    private final String rootDir; // represents the store's root directory
-    private final boolean isReadOnly; // Determines if this handle is only a reader
-    private final boolean isSyncOn; // Determines if this process syncs after each write
-    private int epoch; // Determines the number of merge which is done and the epoch of execution
-    private int currentFileID; // Determines the file ID within a specific epoch (starts with 1)
-    private DataOutputStream dataOutputStream;
+public sealed interface BitCaskHandle permits BitCaskHandleImpl, ShardedBitCaskHandle {
 
     /**
-     * Constructor which initializes the handler and initializes keyDir map with current data
-     * available in the root directory data given if any.
+     * Returns a value from the store given a certain key or null if it doesn't exist.
      */
-    BitCaskHandle(String rootDir, boolean isReadOnly, boolean isSyncOn) throws IOException {
-        // Initializing main attributes
-        this.keyDir = new HashMap<>();
-        this.rootDir = rootDir;
-        this.isReadOnly = isReadOnly;
-        this.isSyncOn = isSyncOn;
-
-        // Initializing the handler state
-        File folder = new File(rootDir);
-        if (folder.exists() && folder.isDirectory()) {
-            final Comparator<String> pathComparator = (s1, s2) -> {
-                if (s1.length() < s2.length()) return -1;
-                else if (s1.length() > s2.length()) return 1;
-                else return s1.compareTo(s2);
-            };
-            List<String> hintFiles =
-                    new ArrayList<>(Arrays.stream(Objects.requireNonNull(folder.listFiles()))
-                            .map(File::getName)
-                            .filter(fileName -> fileName.startsWith("hint"))
-                            .toList());
-            List<String> dataFiles =
-                    new ArrayList<>(Arrays.stream(Objects.requireNonNull(folder.listFiles()))
-                            .map(File::getName)
-                            .filter(fileName -> fileName.startsWith("epoch"))
-                            .toList());
-            if (hintFiles.size() != 0) { // Use hint files for fast recovery
-                hintFiles.sort(pathComparator);
-                String[] lastFileSegment = hintFiles.get(hintFiles.size()-1).split("_");
-                this.epoch = Integer.parseInt(lastFileSegment[2]);
-                int lastFileId = Integer.parseInt(lastFileSegment[3]);
-                for (int i = 1 ; i <= lastFileId ; i++) {
-                    this.currentFileID = i;
-                    try (DataInputStream dataInputStream = new DataInputStream
-                            (new BufferedInputStream(new FileInputStream(getCurrentHintFileId())))) {
-                        while(dataInputStream.available() > 0) {
-                            HintRecord hintRecord = readNextHintRecord(dataInputStream);
-                            String fileId = getCurrentFileId();
-                            int valueSize = hintRecord.valueSize();
-                            int valuePosition = hintRecord.valuePosition();
-                            int timestamp = hintRecord.timestamp();
-                            String key = hintRecord.key();
-                            this.keyDir.put(key, new KeyDirRecord(fileId, valueSize, valuePosition, timestamp));
-                        }
-                    }
-                }
-            }
-            else if (dataFiles.size() != 0) { // No hint files are available so
-                dataFiles.sort(pathComparator);
-                String[] lastFileSegment = dataFiles.get(dataFiles.size()-1).split("_");
-                this.epoch = Integer.parseInt(lastFileSegment[1]);
-                int lastFileId = Integer.parseInt(lastFileSegment[2]);
-                for (int i = 1 ; i <= lastFileId ; i++) {
-                    this.currentFileID = i;
-                    try (DataInputStream dataInputStream = new DataInputStream
-                            (new BufferedInputStream(new FileInputStream(getCurrentFileId())))) {
-                        int currentPosition = 0;
-                        while (dataInputStream.available() >= 12) {
-                            DataRecord dataRecord = readNextDataRecord(dataInputStream);
-                            String fileId = getCurrentFileId();
-                            int valueSize = dataRecord.valueSize();
-                            int valuePosition = currentPosition + 12 + dataRecord.keySize();
-                            int timestamp = dataRecord.timestamp();
-                            currentPosition += 12 + dataRecord.keySize() + dataRecord.valueSize();
-                            if (dataRecord.value().equals(BitcaskStoreImpl.DELETED_VALUE))
-                                this.keyDir.remove(dataRecord.key());
-                            else this.keyDir.put(dataRecord.key(),
-                                    new KeyDirRecord(fileId, valueSize, valuePosition, timestamp));
-                        }
-                    }
-                }
-            }
-            else { // The root directory is new
-                this.epoch = 1;
-                this.currentFileID = 1;
-            }
-        }
-        else throw new RuntimeException("rootDir is invalid");
-    }
+    ByteBuffer getValue(byte[] key) throws IOException;
 
     /**
-     * Returns a value from the store given a certain key.
+     * Adds a new entry in the store, a null value deletes the key.
      */
-    String getValue(String key) throws IOException {
-        if (! keyDir.containsKey(key)) return null;
-        else {
-            String value;
-            KeyDirRecord keyDirRecord = keyDir.get(key);
-            try (InputStream is = new FileInputStream(keyDirRecord.fileId())) {
-                long actualSkipped = is.skip(keyDirRecord.valuePosition());
-                if (actualSkipped != keyDirRecord.valuePosition()) throw new RuntimeException();
-                value = new String(is.readNBytes(keyDirRecord.valueSize()));
-            }
-            return value.equals(BitcaskStoreImpl.DELETED_VALUE) ? null : value;
-        }
-    }
+    void addEntry(byte[] key, byte[] value) throws IOException;
 
     /**
-     * Adds a new entry in the Bitcask store.
+     * Adds a new entry in the store, the returned future completes once the entry is written.
      */
-    void addEntry(String key, String value) throws IOException {
-        if (this.isReadOnly) throw new RuntimeException("Handler has no write permission");
-        else if (this.dataOutputStream == null) updateDataOutputStream();
-        else if (this.dataOutputStream.size() >= BitcaskStoreImpl.MAX_FILE_SIZE) {
-            this.dataOutputStream.close();
-            this.currentFileID++;
-            updateDataOutputStream();
-        }
-        // Creating entry in the key-dir
-        String fileID = getCurrentFileId();
-        int keySize = key.getBytes().length;
-        int valueSize = value.getBytes().length;
-        int valuePosition = this.dataOutputStream.size() + keySize + 12;
-        int timestamp = (int)(System.currentTimeMillis()/1000);
-        KeyDirRecord keyDirRecord
-            = new KeyDirRecord(fileID, valueSize, valuePosition, timestamp);
-        this.keyDir.put(key, keyDirRecord);
+    CompletableFuture<Void> addEntryAsync(byte[] key, byte[] value);
 
-        // Writing the record to the active data file
-        DataRecord dataRecord
-            = new DataRecord(timestamp, keySize, valueSize, key, value);
-        writeDataRecord(dataRecord);
-        if (this.isSyncOn) this.flush();
-    }
+    /**
+     * Adds all the given entries in the store as a single commit.
+     */
+    void addEntries(Collection<Map.Entry<byte[], byte[]>> entries) throws IOException;
 
     /**
      * Returns a list which contains all the keys in the store.
      */
-    List<String> listKeys() {
-        return keyDir.keySet().stream().toList();
-    }
-
-    void fold(BiFunction<String, String, Void> function) {
-        listKeys().forEach(key -> {
-            try {
-                String value = getValue(key);
-                function.apply(key, value);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-    }
+    List<byte[]> listKeys();
 
     /**
-     * Merges all files and remove unnecessary files, creates hint files for
-     * faster crash recovery and updates the epoch version.
+     * Applies the given function on each key and value in the store.
      */
-    void merge() throws IOException {
-        // Closing the data output stream and updating state.
-        this.close();
-        this.dataOutputStream = null;
-        int prevEpoch = this.epoch;
-        int prevId = this.currentFileID;
-        this.epoch++;
-        this.currentFileID = 1;
-
-        // Writing new values in the merged files and creating hint files
-        this.keyDir.keySet().forEach(key -> {
-            try {
-                String value = getValue(key);
-                if (! value.equals(BitcaskStoreImpl.DELETED_VALUE)) this.addEntry(key, value);
-                else this.keyDir.remove(key);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        this.close();
-
-        // Deleting old files
-        List<File> filesToDelete = new ArrayList<>();
-        for (int id = 1 ; id <= prevId ; id++)
-            filesToDelete.add(new File(this.rootDir + "/epoch_" + prevEpoch + "_" + id));
-        for (File file : filesToDelete)
-            if (! file.delete()) throw new RuntimeException("Couldn't delete file " + file.getName());
-
-        // Creating Hint files
-        for (Map.Entry<String, KeyDirRecord> entry : this.keyDir.entrySet()) {
-            String key = entry.getKey();
-            int timestamp = entry.getValue().timestamp();
-            int keySize = key.getBytes().length;
-            int valueSize = entry.getValue().valueSize();
-            int valuePosition = entry.getValue().valuePosition();
-            HintRecord hintRecord = new HintRecord(timestamp, keySize, valueSize, valuePosition, key);
-            String hintFileId = this.rootDir + "/hint_" + entry.getValue().fileId().substring(this.rootDir.length()+1);
-            writeHintRecord(hintRecord, hintFileId);
-        }
-    }
+    void fold(BiConsumer<ByteBuffer, ByteBuffer> function) throws IOException;
 
     /**
-     * Flushes the current data output stream if any.
+     * Same as fold but the function is called concurrently on the given pool.
      */
-    void flush() throws IOException {
-        if (this.dataOutputStream != null)
-            this.dataOutputStream.flush();
-    }
+    void foldParallel(BiConsumer<ByteBuffer, ByteBuffer> function, ForkJoinPool pool) throws IOException;
 
     /**
-     * Closes the current DataOutputStream.
+     * Merges the sealed data files in the background and returns the merge statistics once it's done.
      */
-    void close() throws IOException {
-        if (this.dataOutputStream != null)
-            this.dataOutputStream.close();
-    }
-
-
-    //
-    // Private Methods
-    //
+    CompletableFuture<MergeStats> merge();
 
     /**
-     * Updates the data output stream instance with the current file name.
+     * Returns the statistics of the merges done by this handle.
      */
-    private void updateDataOutputStream() throws FileNotFoundException {
-        this.dataOutputStream = new DataOutputStream
-                (new BufferedOutputStream(new FileOutputStream(getCurrentFileId())));
-    }
-    private String getCurrentFileId() {
-        return this.rootDir + "/epoch_" + this.epoch + "_" + currentFileID;
-    }
+    MergeStats getMergeStats();
 
-    private String getCurrentHintFileId() {
-        return this.rootDir + "/hint_epoch_" + this.epoch + "_" + currentFileID;
-    }
+    /**
+     * Returns the statistics of the value cache of this handle (all zeros if the cache is off).
+     */
+    CacheStats getCacheStats();
 
     /**
-     * Reads the next data record from the given inputStream.
+     * Flushes the written entries to the data files.
      */
-    private DataRecord readNextDataRecord(DataInputStream inputStream) throws IOException {
-        int timestamp = inputStream.readInt();
-        int keySize = inputStream.readInt();
-        int valueSize = inputStream.readInt();
-        String key = new String(inputStream.readNBytes(keySize));
-        String value = new String(inputStream.readNBytes(valueSize));
-        return new DataRecord(timestamp, keySize, valueSize, key, value);
-    }
+    void flush() throws IOException;
 
     /**
-     * Writes a new record in the last data file.
+     * Flushes the written entries and forces the data files to disk.
      */
-    private void writeDataRecord(DataRecord record) throws IOException {
-        this.dataOutputStream.writeInt(record.timestamp());
-        this.dataOutputStream.writeInt(record.keySize());
-        this.dataOutputStream.writeInt(record.valueSize());
-        this.dataOutputStream.writeBytes(record.key());
-        this.dataOutputStream.writeBytes(record.value());
-    }
+    void force() throws IOException;
 
     /**
-     * Reads the next hint record from the given input stream.
+     * Throws an IllegalStateException if the handle is closed.
      */
-    private HintRecord readNextHintRecord(DataInputStream inputStream) throws IOException {
-        int timestamp = inputStream.readInt();
-        int keySize = inputStream.readInt();
-        int valueSize = inputStream.readInt();
-        int valuePosition = inputStream.readInt();
-        String key = new String(inputStream.readNBytes(keySize));
-        return new HintRecord(timestamp, keySize, valueSize, valuePosition, key);
-    }
+    void ensureOpen();
 
     /**
-     * Writes a hint record given the hint file ID
+     * Closes the handle after writing the pending entries, closing it again does nothing.
      */
-    private void writeHintRecord(HintRecord hintRecord, String hintFileId) throws IOException {
-        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(hintFileId, true))) {
-            outputStream.writeInt(hintRecord.timestamp());
-            outputStream.writeInt(hintRecord.keySize());
-            outputStream.writeInt(hintRecord.valueSize());
-            outputStream.writeInt(hintRecord.valuePosition());
-            outputStream.writeBytes(hintRecord.key());
-        }
-    }
+    void close() throws IOException;
 
     //
     // Nested Types
     //
 
     /**
-     * Represents a record in a data file.
-     */
-    private record DataRecord
-        (int timestamp, int keySize, int valueSize, String key, String value) {}
-
-    /**
-     * Represents a record in a hint file.
+     * Represents the statistics of the merges done by a handle.
      */
-    private record HintRecord(int timestamp, int keySize, int valueSize, int valuePosition, String key) {}
+    record MergeStats(long mergeCount, long lastDurationMillis, long totalDurationMillis,
+                      long lastReclaimedBytes, long totalReclaimedBytes) {}
 
     /**
-     * Represents a record for the in-memory key directory
+     * Represents the statistics of the value cache of a handle.
      */
-    private record KeyDirRecord(String fileId, int valueSize, int valuePosition, int timestamp){}
-}
\ No newline at end of file
+    record CacheStats(long hits, long misses, long evictions, int cachedValues, long cachedBytes) {}
+}
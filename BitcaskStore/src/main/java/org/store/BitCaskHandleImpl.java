@@ -0,0 +1,718 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.store.KeyDir.KeyDirRecord;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Handler for a single bitcask directory, performs all R/W operations on its data files.
+ * Supports a single writer thread (writes are serialized on the handle) along with any
+ * number of concurrent reader threads which never wait for the writer unless they
+ * read a value which is still buffered in the active data file.
+ */
+final class BitCaskHandleImpl implements BitCaskHandle {
+
+    private static final Logger logger = LogManager.getLogger(BitCaskHandleImpl.class);
+
+    private final KeyDir keyDir;
+    private final String rootDir; // represents the store's root directory
+    private final boolean isReadOnly; // Determines if this handle is only a reader
+    private final boolean isSyncOn; // Determines if this process syncs after each write
+    private final boolean isAutoMergeOn; // Determines if merges are triggered automatically by the merge policy
+    private final boolean isCompressionOn; // Determines if the written values are compressed
+    private final ValueCodec valueCodec; // Compresses the written values and decompresses the read values
+    private int epoch; // Determines the number of merge which is done and the epoch of execution
+    private int currentFileID; // Determines the file ID within a specific epoch (starts with 1)
+    private DataOutputStream dataOutputStream;
+    private FileOutputStream activeFileOutputStream; // The underlying stream of the active data file
+    private final List<String> unforcedFileIds; // The data files sealed since the last force (forced by the next one)
+    private boolean isRootDirUnforced; // Determines if data files were created since the last force
+    private final GroupCommitter groupCommitter; // Coalesces concurrent puts into group commits (null if off)
+    private final DataFileReader dataFileReader; // Serves value reads using pooled file channels
+    private final ValueCache valueCache; // Caches the recently read values (null if off)
+    private volatile ActiveFile activeFile; // The active data file as published to the readers
+    private final List<FoldSnapshot> foldSnapshots; // The snapshots of the running folds
+    private final ReadWriteLock foldLock; // Held by the folds (read lock) and the merges (write lock)
+    private volatile boolean isClosed; // Determines if the handle is closed (all the operations fail)
+
+    // Merge state
+    private final ExecutorService mergeExecutor; // Runs the merges in the background (null for readers)
+    private final AtomicBoolean isMergeScheduled; // Determines if the merge policy already scheduled a merge
+    private long dataBytes; // The total size of the data files
+    private long deadBytes; // The (approximate) size of overwritten and deleted records in the data files
+    private int unmergedFileCount; // The number of sealed data files which weren't produced by a merge
+    private volatile MergeStats mergeStats;
+
+    /**
+     * Constructor which initializes the handler and initializes keyDir map with current data
+     * available in the root directory data given if any. Data files are loaded in (epoch, file ID)
+     * order using their hint files when available. The group commit limits are only used if group
+     * commit is on and the compression dictionary (null for none) is only used if compression is on.
+     */
+    BitCaskHandleImpl(String rootDir, boolean isReadOnly, boolean isSyncOn, boolean isMmapOn,
+                      boolean isCompactKeyDir, boolean isAutoMergeOn, boolean isGroupCommitOn,
+                      boolean isValueCacheOn, boolean isCompressionOn, byte[] compressionDictionary,
+                      int groupCommitMaxEntries, long groupCommitWindowMicros) throws IOException {
+        // Initializing main attributes
+        this.keyDir = isCompactKeyDir ? new CompactKeyDir() : new HashMapKeyDir();
+        this.rootDir = rootDir;
+        this.isReadOnly = isReadOnly;
+        this.isSyncOn = isSyncOn;
+        this.isAutoMergeOn = isAutoMergeOn;
+        this.isCompressionOn = isCompressionOn;
+        this.valueCodec = new ValueCodec(rootDir, isCompressionOn ? compressionDictionary : null, isReadOnly);
+        this.dataFileReader = new DataFileReader(BitcaskStoreImpl.MAX_OPEN_FILES, isMmapOn);
+        this.valueCache = isValueCacheOn ? new ValueCache(BitcaskStoreImpl.VALUE_CACHE_MAX_BYTES) : null;
+        this.mergeExecutor = isReadOnly ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bitcask-merge-" + rootDir);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.isMergeScheduled = new AtomicBoolean(false);
+        this.foldSnapshots = new CopyOnWriteArrayList<>();
+        this.foldLock = new ReentrantReadWriteLock();
+        this.unforcedFileIds = new ArrayList<>();
+        this.groupCommitter = (isReadOnly || ! isGroupCommitOn) ? null : new GroupCommitter
+                (this, rootDir, groupCommitMaxEntries, groupCommitWindowMicros);
+        this.mergeStats = new MergeStats(0, 0, 0, 0, 0);
+
+        // Initializing the handler state
+        File folder = new File(rootDir);
+        if (! folder.exists() || ! folder.isDirectory()) throw new RuntimeException("rootDir is invalid");
+        Set<String> hintFiles = Arrays.stream(Objects.requireNonNull(folder.list()))
+                .filter(fileName -> fileName.startsWith("hint_"))
+                .collect(Collectors.toSet());
+        for (String hintFile : hintFiles) { // Hint files which weren't completed by a merge are never trusted
+            if (hintFile.endsWith(HintFileFormat.TEMPORARY_SUFFIX) && ! isReadOnly)
+                Files.deleteIfExists(Path.of(rootDir, hintFile));
+        }
+        List<String> dataFiles = listDataFiles();
+        ExecutorService recoveryExecutor = Executors.newFixedThreadPool
+                (Math.max(1, Math.min(dataFiles.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            // Reading the hint files and scanning the data files which have no hint files in parallel
+            Map<String, Future<List<DataFileFormat.ScannedRecord>>> hintResults = new HashMap<>();
+            Map<String, Future<DataFileFormat.ScanResult>> scanResults = new HashMap<>();
+            for (String dataFile : dataFiles) {
+                String fileId = this.rootDir + "/" + dataFile;
+                String hintFileId = this.rootDir + "/hint_" + dataFile;
+                if (hintFiles.contains("hint_" + dataFile))
+                    hintResults.put(dataFile, recoveryExecutor.submit(() -> HintFileFormat.read(hintFileId)));
+                else scanResults.put(dataFile, recoveryExecutor.submit(() -> DataFileFormat.scan(fileId)));
+            }
+            for (String dataFile : dataFiles) { // Later files override the records of earlier files
+                String fileId = this.rootDir + "/" + dataFile;
+                List<DataFileFormat.ScannedRecord> hintRecords
+                        = hintResults.containsKey(dataFile) ? hintResults.get(dataFile).get() : null;
+                if (hintRecords != null) loadRecords(fileId, hintRecords);
+                else if (hintResults.containsKey(dataFile)) {
+                    logger.warn("Hint file of (" + fileId + ") can't be trusted, scanning the data file instead.");
+                    loadScanResult(fileId, DataFileFormat.scan(fileId));
+                }
+                else {
+                    loadScanResult(fileId, scanResults.get(dataFile).get());
+                    this.unmergedFileCount++;
+                }
+                this.dataBytes += new File(fileId).length();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recovering the data files", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't read the data files", e.getCause());
+        } finally {
+            recoveryExecutor.shutdown();
+        }
+        if (dataFiles.size() != 0) {
+            String[] lastFileSegment = dataFiles.get(dataFiles.size()-1).split("_");
+            this.epoch = Integer.parseInt(lastFileSegment[1]);
+            this.currentFileID = Integer.parseInt(lastFileSegment[2]);
+            if (! this.isReadOnly) this.currentFileID++; // The writer never appends to existing files
+        }
+        else { // The root directory is new
+            this.epoch = 1;
+            this.currentFileID = 1;
+        }
+        long[] liveBytes = {0};
+        this.keyDir.forEach((key, keyDirRecord) ->
+                liveBytes[0] += DataFileFormat.RECORD_HEADER_SIZE + key.length + keyDirRecord.valueSize());
+        this.deadBytes = Math.max(0, this.dataBytes - liveBytes[0]);
+        this.activeFile = new ActiveFile(getCurrentFileId(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a value from the store given a certain key or null if it doesn't exist. The returned
+     * buffer is a read-only view of the mapped data file if the value is served from a mapped file.
+     */
+    @Override
+    public ByteBuffer getValue(byte[] key) throws IOException {
+        ensureOpen();
+        while (true) {
+            KeyDirRecord keyDirRecord = keyDir.get(key);
+            if (keyDirRecord == null) return null;
+            if (this.valueCache != null) {
+                byte[] cachedValue = this.valueCache.get(key, keyDirRecord);
+                if (cachedValue != null) return ByteBuffer.wrap(cachedValue).asReadOnlyBuffer();
+            }
+            ActiveFile activeFile = this.activeFile;
+            boolean isSealed = ! keyDirRecord.fileId().equals(activeFile.fileId());
+            // The value may still be buffered if it was recently written to the active file
+            if (! isSealed && keyDirRecord.valuePosition() + keyDirRecord.valueSize() > activeFile.flushedSize())
+                this.flush();
+            try {
+                ByteBuffer valueBuffer = dataFileReader.read
+                        (keyDirRecord.fileId(), keyDirRecord.valuePosition(), keyDirRecord.valueSize(), isSealed);
+                if (keyDirRecord.isCompressed()) { // The cache keeps the decompressed value
+                    byte[] value = this.valueCodec.decompress(valueBuffer);
+                    if (this.valueCache != null) this.valueCache.put(key, keyDirRecord, value);
+                    return ByteBuffer.wrap(value).asReadOnlyBuffer();
+                }
+                if (this.valueCache != null) {
+                    byte[] value = new byte[valueBuffer.remaining()];
+                    valueBuffer.duplicate().get(value);
+                    this.valueCache.put(key, keyDirRecord, value);
+                }
+                return valueBuffer;
+            } catch (NoSuchFileException e) {
+                // The data file was deleted by a merge after reading the record so retry using the new record
+                if (keyDirRecord.equals(keyDir.get(key))) throw e;
+            }
+        }
+    }
+
+    /**
+     * Adds a new entry in the Bitcask store, a null value deletes the key.
+     */
+    @Override
+    public synchronized void addEntry(byte[] key, byte[] value) throws IOException {
+        writeEntry(key, value);
+        if (this.isSyncOn) this.flush();
+    }
+
+    /**
+     * Adds a new entry in the Bitcask store as part of the next group commit if group commit is on.
+     * Otherwise, the entry is added immediately. The returned future completes once the entry is written.
+     */
+    @Override
+    public CompletableFuture<Void> addEntryAsync(byte[] key, byte[] value) {
+        ensureOpen();
+        if (this.groupCommitter != null) return this.groupCommitter.submit(key, value);
+        try {
+            addEntry(key, value);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Adds all the given entries in the Bitcask store as a single commit, the entries are flushed
+     * once after writing all of them (if sync is on) and forced to disk (if group commit is on).
+     */
+    @Override
+    public synchronized void addEntries(Collection<Map.Entry<byte[], byte[]>> entries) throws IOException {
+        for (Map.Entry<byte[], byte[]> entry : entries) writeEntry(entry.getKey(), entry.getValue());
+        if (this.groupCommitter != null) this.force();
+        else if (this.isSyncOn) this.flush();
+    }
+
+    /**
+     * Returns a list which contains all the keys in the store.
+     */
+    @Override
+    public List<byte[]> listKeys() {
+        return keyDir.keys();
+    }
+
+    /**
+     * Applies the given function on each key and value in the store as of the moment the fold starts.
+     * The data files are walked sequentially in (epoch, file ID) order and the live records are resolved
+     * against the key-dir, so the writes done while folding aren't visible and merges wait for the fold.
+     * The buffers are read-only views which are reused between the calls (only valid during the call).
+     */
+    @Override
+    public void fold(BiConsumer<ByteBuffer, ByteBuffer> function) throws IOException {
+        this.foldLock.readLock().lock();
+        try {
+            FoldSnapshot snapshot = takeFoldSnapshot();
+            try {
+                FoldSnapshot.FoldBuffer buffer = new FoldSnapshot.FoldBuffer();
+                for (String fileId : snapshot.fileIds()) snapshot.foldDataFile(fileId, buffer, function);
+            } finally {
+                this.foldSnapshots.remove(snapshot);
+            }
+        } finally {
+            this.foldLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same as fold but the data files are folded in parallel on the given pool (one task per data file),
+     * so the function is called concurrently and the keys aren't visited in any specific order.
+     */
+    @Override
+    public void foldParallel(BiConsumer<ByteBuffer, ByteBuffer> function, ForkJoinPool pool) throws IOException {
+        this.foldLock.readLock().lock();
+        try {
+            FoldSnapshot snapshot = takeFoldSnapshot();
+            try {
+                List<Callable<Void>> tasks = snapshot.fileIds().stream().map(fileId -> (Callable<Void>) () -> {
+                    snapshot.foldDataFile(fileId, new FoldSnapshot.FoldBuffer(), function);
+                    return null;
+                }).toList();
+                for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while folding the data files", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) throw ioException;
+                throw new RuntimeException(e.getCause());
+            } finally {
+                this.foldSnapshots.remove(snapshot);
+            }
+        } finally {
+            this.foldLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Schedules a merge of all the sealed data files on the background merge thread and returns
+     * the merge statistics once it's done. The writes continue in a new active data file while merging.
+     * The live records of the sealed files are rewritten in new merged files while their hint files (for
+     * faster crash recovery) are streamed alongside, each hint file is committed once its merged file is
+     * forced to disk, then the key-dir entries which still point to the sealed files are
+     * atomically swapped to the merged files and the sealed files are deleted.
+     */
+    @Override
+    public CompletableFuture<MergeStats> merge() {
+        if (this.isReadOnly) throw new RuntimeException("Handler has no write permission");
+        ensureOpen();
+        return CompletableFuture.supplyAsync(() -> {
+            this.foldLock.writeLock().lock(); // The merge mustn't delete the data files being folded
+            try {
+                return mergeSealedFiles();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                this.foldLock.writeLock().unlock();
+            }
+        }, this.mergeExecutor);
+    }
+
+    /**
+     * Returns the statistics of the merges done by this handle.
+     */
+    @Override
+    public MergeStats getMergeStats() {
+        return this.mergeStats;
+    }
+
+    /**
+     * Returns the statistics of the value cache of this handle (all zeros if the cache is off).
+     */
+    @Override
+    public CacheStats getCacheStats() {
+        return (this.valueCache == null) ? new CacheStats(0, 0, 0, 0, 0) : this.valueCache.getStats();
+    }
+
+    /**
+     * Flushes the current data output stream if any.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.dataOutputStream != null) {
+            this.dataOutputStream.flush();
+            this.activeFile = new ActiveFile(getCurrentFileId(), this.dataOutputStream.size());
+        }
+    }
+
+    /**
+     * Flushes the current data output stream (if any) and forces its data file to disk along with the data
+     * files sealed since the last force and the root directory (if data files were created since then).
+     */
+    @Override
+    public synchronized void force() throws IOException {
+        for (String fileId : this.unforcedFileIds) {
+            try (FileChannel channel = FileChannel.open(Path.of(fileId), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (NoSuchFileException e) {
+                // The data file was merged (its records were forced in the merged files) and deleted
+            }
+        }
+        this.unforcedFileIds.clear();
+        if (this.dataOutputStream != null) {
+            this.flush();
+            this.activeFileOutputStream.getChannel().force(false);
+        }
+        if (this.isRootDirUnforced) { // The entries of the created data files must be durable too
+            try (FileChannel channel = FileChannel.open(Path.of(this.rootDir), StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+            this.isRootDirUnforced = false;
+        }
+    }
+
+    /**
+     * Throws if the handle is closed.
+     */
+    @Override
+    public void ensureOpen() {
+        if (this.isClosed) throw new IllegalStateException("Handler is closed (" + this.rootDir + ")");
+    }
+
+    /**
+     * Closes the current DataOutputStream and the open data file channels after committing the pending
+     * entries and stopping the committer thread (if group commit is on) and waiting for the running merge
+     * (the merges which didn't start yet fail). All the operations fail once the handle is closed, closing
+     * it again does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.groupCommitter != null) this.groupCommitter.shutdown();
+            synchronized (this) {
+                if (this.isClosed) return;
+                this.isClosed = true;
+            }
+            if (this.mergeExecutor != null) {
+                this.mergeExecutor.shutdown();
+                while (! this.mergeExecutor.awaitTermination(1, TimeUnit.MINUTES))
+                    logger.info("Waiting for the merge of (" + this.rootDir + ") to close the handle.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the handle", e);
+        }
+        synchronized (this) {
+            if (this.dataOutputStream != null) {
+                if (this.groupCommitter != null) this.force();
+                this.dataOutputStream.close();
+                this.activeFile = new ActiveFile(getCurrentFileId(), Long.MAX_VALUE);
+            }
+            this.dataFileReader.close();
+        }
+    }
+
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Writes a new record in the active data file and publishes it in the key-dir.
+     */
+    private void writeEntry(byte[] key, byte[] value) throws IOException {
+        if (this.isReadOnly) throw new RuntimeException("Handler has no write permission");
+        ensureOpen();
+        if (this.dataOutputStream == null) updateDataOutputStream();
+        else if (this.dataOutputStream.size() >= BitcaskStoreImpl.MAX_FILE_SIZE) {
+            if (this.groupCommitter != null) this.force(); // Committed entries must stay durable
+            else this.unforcedFileIds.add(getCurrentFileId()); // Forced by the next sync
+            this.dataOutputStream.close();
+            this.currentFileID++;
+            this.unmergedFileCount++;
+            updateDataOutputStream();
+            if (this.isAutoMergeOn && shouldMerge()) scheduleMerge();
+        }
+        int timestamp = (int)(System.currentTimeMillis()/1000);
+        KeyDirRecord previousKeyDirRecord = this.keyDir.get(key);
+        if (previousKeyDirRecord != null) // The running folds still need the overwritten record
+            for (FoldSnapshot foldSnapshot : this.foldSnapshots) foldSnapshot.recordOverwrite(key, previousKeyDirRecord);
+        if (value == null) { // Writing a tombstone and removing the key from the key-dir
+            DataFileFormat.writeTombstone(this.dataOutputStream, timestamp, key);
+            this.keyDir.remove(key);
+            if (this.valueCache != null) this.valueCache.invalidate(key);
+            this.dataBytes += DataFileFormat.RECORD_HEADER_SIZE + key.length;
+            this.deadBytes += DataFileFormat.RECORD_HEADER_SIZE + key.length;
+            if (previousKeyDirRecord != null)
+                this.deadBytes += DataFileFormat.RECORD_HEADER_SIZE + key.length + previousKeyDirRecord.valueSize();
+            return;
+        }
+
+        // Writing the record to the active data file (compressed if it saves space)
+        String fileID = getCurrentFileId();
+        byte[] compressedValue = this.isCompressionOn ? this.valueCodec.compress(value) : null;
+        int keySize = key.length;
+        int valueSize = compressedValue != null ? compressedValue.length : value.length;
+        int valuePosition = this.dataOutputStream.size() + DataFileFormat.RECORD_HEADER_SIZE + keySize;
+        if (compressedValue != null)
+            DataFileFormat.writeCompressedRecord(this.dataOutputStream, timestamp, key, compressedValue);
+        else DataFileFormat.writeRecord(this.dataOutputStream, timestamp, key, value);
+
+        // Publishing the entry in the key-dir after the record is written
+        KeyDirRecord keyDirRecord
+            = new KeyDirRecord(fileID, valueSize, valuePosition, timestamp, compressedValue != null);
+        this.keyDir.put(key, keyDirRecord);
+        if (this.valueCache != null) this.valueCache.invalidate(key);
+
+        // Updating the merge policy state
+        this.dataBytes += DataFileFormat.RECORD_HEADER_SIZE + keySize + valueSize;
+        if (previousKeyDirRecord != null)
+            this.deadBytes += DataFileFormat.RECORD_HEADER_SIZE + keySize + previousKeyDirRecord.valueSize();
+    }
+
+    /**
+     * Merges the sealed data files (runs on the merge thread).
+     */
+    private MergeStats mergeSealedFiles() throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        // Sealing the active data file and moving the writes to a new epoch
+        List<String> sealedFileIds;
+        int mergeEpoch;
+        synchronized (this) {
+            ensureOpen(); // The merges which didn't start before closing the handle fail
+            if (this.dataOutputStream != null) {
+                if (this.groupCommitter != null) this.force();
+                else this.unforcedFileIds.add(getCurrentFileId()); // Forced by the next sync
+                this.dataOutputStream.close();
+                this.dataOutputStream = null;
+                this.unmergedFileCount++;
+            }
+            sealedFileIds = listDataFiles().stream().map(fileName -> this.rootDir + "/" + fileName).toList();
+            if (sealedFileIds.isEmpty()) return this.mergeStats;
+            mergeEpoch = this.epoch + 1;
+            this.epoch += 2;
+            this.currentFileID = 1;
+            this.activeFile = new ActiveFile(getCurrentFileId(), 0);
+        }
+        Set<String> sealedFileIdSet = new HashSet<>(sealedFileIds);
+        long sealedBytes = 0;
+        int sealedUnmergedFileCount = 0;
+        for (String fileId : sealedFileIds) {
+            sealedBytes += new File(fileId).length();
+            if (! new File(this.rootDir + "/hint_" + new File(fileId).getName()).exists()) sealedUnmergedFileCount++;
+        }
+
+        // Writing the live records of the sealed files in the merged files
+        int mergedFileID = 0;
+        long mergedBytes = 0;
+        MergedFile mergedFile = null;
+        List<MergedEntry> mergedEntries = new ArrayList<>();
+        for (byte[] key : this.keyDir.keys()) {
+            KeyDirRecord keyDirRecord = this.keyDir.get(key);
+            // Deleted keys aren't in the key-dir so their records (and tombstones) are dropped
+            if (keyDirRecord == null || ! sealedFileIdSet.contains(keyDirRecord.fileId())) continue;
+            ByteBuffer valueBuffer = this.dataFileReader.read(keyDirRecord.fileId(),
+                    keyDirRecord.valuePosition(), keyDirRecord.valueSize(), true);
+            if (mergedFile == null || mergedFile.dataOutputStream().size() >= BitcaskStoreImpl.MAX_FILE_SIZE) {
+                if (mergedFile != null) {
+                    mergedBytes += mergedFile.dataOutputStream().size();
+                    publishMergedFile(mergedFile, mergedEntries);
+                }
+                mergedFileID++;
+                mergedFile = openMergedFile("epoch_" + mergeEpoch + "_" + mergedFileID);
+            }
+            byte[] value = new byte[valueBuffer.remaining()];
+            valueBuffer.get(value);
+            int valuePosition = mergedFile.dataOutputStream().size() + DataFileFormat.RECORD_HEADER_SIZE + key.length;
+            // Compressed values are copied as they are (along with their flag)
+            if (keyDirRecord.isCompressed())
+                DataFileFormat.writeCompressedRecord(mergedFile.dataOutputStream(), keyDirRecord.timestamp(), key, value);
+            else DataFileFormat.writeRecord(mergedFile.dataOutputStream(), keyDirRecord.timestamp(), key, value);
+            mergedFile.hintWriter().writeRecord(keyDirRecord.timestamp(),
+                    keyDirRecord.isCompressed() ? DataFileFormat.FLAG_COMPRESSED : 0,
+                    key, keyDirRecord.valueSize(), valuePosition);
+            mergedEntries.add(new MergedEntry(key, keyDirRecord, new KeyDirRecord
+                    (this.rootDir + "/epoch_" + mergeEpoch + "_" + mergedFileID, keyDirRecord.valueSize(),
+                            valuePosition, keyDirRecord.timestamp(), keyDirRecord.isCompressed())));
+        }
+        if (mergedFile != null) {
+            mergedBytes += mergedFile.dataOutputStream().size();
+            publishMergedFile(mergedFile, mergedEntries);
+        }
+
+        // Deleting the sealed files and their hint files
+        for (String fileId : sealedFileIds) {
+            this.dataFileReader.evict(fileId);
+            File file = new File(fileId);
+            if (! file.delete()) throw new RuntimeException("Couldn't delete file " + file.getName());
+            File hintFile = new File(this.rootDir + "/hint_" + file.getName());
+            if (hintFile.exists() && ! hintFile.delete())
+                throw new RuntimeException("Couldn't delete file " + hintFile.getName());
+        }
+
+        // Updating the merge policy state and the statistics
+        long reclaimedBytes = sealedBytes - mergedBytes;
+        long duration = System.currentTimeMillis() - startTime;
+        synchronized (this) {
+            this.dataBytes -= reclaimedBytes;
+            this.deadBytes = Math.max(0, this.deadBytes - reclaimedBytes);
+            this.unmergedFileCount -= sealedUnmergedFileCount;
+            MergeStats stats = this.mergeStats;
+            this.mergeStats = new MergeStats(stats.mergeCount() + 1, duration, stats.totalDurationMillis() + duration,
+                    reclaimedBytes, stats.totalReclaimedBytes() + reclaimedBytes);
+        }
+        logger.info("Merged " + sealedFileIds.size() + " data files into " + mergedFileID + " files in "
+                + duration + " ms reclaiming " + reclaimedBytes + " bytes.");
+        return this.mergeStats;
+    }
+
+    /**
+     * Opens a new merged data file (with the given name) along with the writer of its hint file.
+     */
+    private MergedFile openMergedFile(String fileName) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(this.rootDir + "/" + fileName);
+        DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+        DataFileFormat.writeFileHeader(dataOutputStream);
+        return new MergedFile(fileOutputStream, dataOutputStream,
+                new HintFileFormat.Writer(this.rootDir + "/hint_" + fileName));
+    }
+
+    /**
+     * Closes the given merged data file (forcing it to disk), commits its hint file and swaps the
+     * key-dir entries which weren't updated while merging to point to the merged file.
+     */
+    private void publishMergedFile(MergedFile mergedFile, List<MergedEntry> mergedEntries) throws IOException {
+        mergedFile.dataOutputStream().flush();
+        mergedFile.fileOutputStream().getChannel().force(false); // The hints mustn't outlive their records
+        mergedFile.dataOutputStream().close();
+        mergedFile.hintWriter().commit();
+        for (MergedEntry mergedEntry : mergedEntries) {
+            KeyDirRecord mergedRecord = mergedEntry.mergedRecord();
+            byte[] key = mergedEntry.key();
+            if (this.keyDir.replace(key, mergedEntry.sealedRecord(), mergedRecord) && this.valueCache != null)
+                this.valueCache.rekey(key, mergedEntry.sealedRecord(), mergedRecord);
+        }
+        mergedEntries.clear();
+    }
+
+    /**
+     * Flushes the active data file and takes a snapshot of the data files for a fold. The snapshot
+     * is registered while holding the writer lock so it sees every overwrite done after it's taken.
+     */
+    private synchronized FoldSnapshot takeFoldSnapshot() throws IOException {
+        this.flush();
+        Map<String, Long> fileSizes = new LinkedHashMap<>();
+        for (String dataFile : listDataFiles()) {
+            String fileId = this.rootDir + "/" + dataFile;
+            fileSizes.put(fileId, new File(fileId).length());
+        }
+        FoldSnapshot foldSnapshot = new FoldSnapshot(this.keyDir, this.valueCodec, fileSizes);
+        this.foldSnapshots.add(foldSnapshot);
+        return foldSnapshot;
+    }
+
+    /**
+     * Checks the merge policy, a merge is needed if there are many sealed data files which were never
+     * merged or if a large ratio of the data files is occupied by overwritten and deleted records.
+     */
+    private boolean shouldMerge() {
+        return this.unmergedFileCount >= BitcaskStoreImpl.MERGE_TRIGGER_FILE_COUNT
+                || (this.unmergedFileCount > 0 && this.dataBytes > 0
+                && (double) this.deadBytes / this.dataBytes >= BitcaskStoreImpl.MERGE_TRIGGER_DEAD_BYTES_RATIO);
+    }
+
+    /**
+     * Schedules a merge unless one was already scheduled by the merge policy.
+     */
+    private void scheduleMerge() {
+        if (this.isMergeScheduled.compareAndSet(false, true)) {
+            merge().whenComplete((stats, exception) -> {
+                this.isMergeScheduled.set(false);
+                if (exception != null) logger.error("Couldn't merge the store. [" + exception + "]");
+            });
+        }
+    }
+
+    /**
+     * Returns the names of the data files sorted by epoch then by file ID.
+     */
+    private List<String> listDataFiles() {
+        return Arrays.stream(Objects.requireNonNull(new File(this.rootDir).list()))
+                .filter(fileName -> fileName.startsWith("epoch_"))
+                .sorted(Comparator.comparingInt((String fileName) -> Integer.parseInt(fileName.split("_")[1]))
+                        .thenComparingInt(fileName -> Integer.parseInt(fileName.split("_")[2])))
+                .toList();
+    }
+
+    /**
+     * Loads the given records of the given data file (read from its hint file or scanned) in the key-dir.
+     */
+    private void loadRecords(String fileId, List<DataFileFormat.ScannedRecord> records) {
+        for (DataFileFormat.ScannedRecord scannedRecord : records) {
+            if (scannedRecord.isDeleted()) this.keyDir.remove(scannedRecord.key());
+            else this.keyDir.put(scannedRecord.key(), new KeyDirRecord(fileId, scannedRecord.valueSize(),
+                    scannedRecord.valuePosition(), scannedRecord.timestamp(), scannedRecord.isCompressed()));
+        }
+    }
+
+    /**
+     * Loads the scanned records of the given data file in the key-dir. If the file has a corrupted
+     * or incomplete tail, it's truncated at the end of its last valid record (writers only).
+     */
+    private void loadScanResult(String fileId, DataFileFormat.ScanResult scanResult) throws IOException {
+        loadRecords(fileId, scanResult.records());
+        if (scanResult.validLength() < scanResult.fileLength()) {
+            logger.warn("Data file (" + fileId + ") has " + (scanResult.fileLength() - scanResult.validLength())
+                    + " corrupted bytes after position " + scanResult.validLength() + ".");
+            if (! this.isReadOnly) {
+                try (FileChannel channel = FileChannel.open(Path.of(fileId), StandardOpenOption.WRITE)) {
+                    channel.truncate(scanResult.validLength());
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the data output stream instance with the current file name.
+     */
+    private void updateDataOutputStream() throws IOException {
+        this.activeFileOutputStream = new FileOutputStream(getCurrentFileId());
+        this.isRootDirUnforced = true;
+        this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(this.activeFileOutputStream));
+        DataFileFormat.writeFileHeader(this.dataOutputStream);
+        this.activeFile = new ActiveFile(getCurrentFileId(), 0);
+    }
+
+    private String getCurrentFileId() {
+        return this.rootDir + "/epoch_" + this.epoch + "_" + currentFileID;
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents a merged data file which is being written and the writer of its hint file.
+     */
+    private record MergedFile(FileOutputStream fileOutputStream, DataOutputStream dataOutputStream,
+                              HintFileFormat.Writer hintWriter) {}
+
+    /**
+     * Represents a key whose record was rewritten in a merged data file.
+     */
+    private record MergedEntry(byte[] key, KeyDirRecord sealedRecord, KeyDirRecord mergedRecord) {}
+
+    /**
+     * Represents the active data file and the number of its bytes which are flushed (visible to readers).
+     */
+    private record ActiveFile(String fileId, long flushedSize) {}
+}
\ No newline at end of file
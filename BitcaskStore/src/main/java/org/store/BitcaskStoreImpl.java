@@ -9,22 +9,73 @@ import org.apache.logging.log4j.Logger;
 import org.api.BitcaskStore;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
 public class BitcaskStoreImpl implements BitcaskStore {
 
     // Constants
     public static final long MAX_FILE_SIZE = 1000*1024; // The maximum size in bytes for each file segment
-    public static final String DELETED_VALUE = "___DELETED___1019___"; // Determines that a certain key was deleted
+    public static final int MERGE_TRIGGER_FILE_COUNT = 16; // Sealed files (never merged) which trigger a merge
+    public static final double MERGE_TRIGGER_DEAD_BYTES_RATIO = 0.5; // Ratio of dead bytes which triggers a merge
+    public static final int DEFAULT_GROUP_COMMIT_MAX_ENTRIES = 1024; // The maximum number of entries in a group commit
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 2000; // The maximum time a group commit waits for entries
+    public static final int MAX_OPEN_FILES = 64; // The maximum number of data files kept open for reading
+    public static final long VALUE_CACHE_MAX_BYTES = 64*1024*1024; // The maximum size in bytes of the value cache
+    public static final String DELETED_VALUE = "___DELETED___1019___"; // Marks a deleted key in legacy data files
+    static final byte[] DELETED_VALUE_BYTES = DELETED_VALUE.getBytes(StandardCharsets.UTF_8);
     private static final Logger logger = LogManager.getLogger(BitcaskStoreImpl.class);
 
+    private final int groupCommitMaxEntries; // The maximum number of entries in a group commit
+    private final long groupCommitWindowMicros; // The maximum time a group commit waits for entries
+    private final byte[] compressionDictionary; // The preset dictionary of the compressed values (null if none)
+
+    public BitcaskStoreImpl() {
+        this(DEFAULT_GROUP_COMMIT_MAX_ENTRIES, DEFAULT_GROUP_COMMIT_WINDOW_MICROS);
+    }
+
+    /**
+     * Creates a store whose handles (opened with the group_commit option) commit at most the given number of
+     * entries at once and wait at most the given window for more entries before committing.
+     */
+    public BitcaskStoreImpl(int groupCommitMaxEntries, long groupCommitWindowMicros) {
+        this(groupCommitMaxEntries, groupCommitWindowMicros, null);
+    }
+
+    /**
+     * Same as above, the handles opened with the compression option also deflate the values using the given
+     * preset dictionary (e.g. samples or field names of the stored values, up to 32 KB). The dictionary is
+     * stored in the bitcask directory, so the values stay readable once the dictionary is changed.
+     */
+    public BitcaskStoreImpl(int groupCommitMaxEntries, long groupCommitWindowMicros, byte[] compressionDictionary) {
+        if (groupCommitMaxEntries < 1) throw new IllegalArgumentException("groupCommitMaxEntries must be positive");
+        if (groupCommitWindowMicros < 0) throw new IllegalArgumentException("groupCommitWindowMicros must be non-negative");
+        this.groupCommitMaxEntries = groupCommitMaxEntries;
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+        this.compressionDictionary = (compressionDictionary == null) ? null : compressionDictionary.clone();
+    }
+
     @Override
     public BitCaskHandle open(String directoryName, List<OPTIONS> opts) {
-        boolean isReadOnly = true, isSyncOn = false;
+        boolean isReadOnly = true, isSyncOn = false, isMmapOn = false, isCompactKeyDir = false;
+        boolean isAutoMergeOn = false, isGroupCommitOn = false, isValueCacheOn = false, isCompressionOn = false;
         if (opts != null) {
             if (opts.contains(OPTIONS.READ_WRITE_OPTION)) isReadOnly = false;
             if (opts.contains(OPTIONS.SYNC_ON_PUT_OPTION)) isSyncOn = true;
+            if (opts.contains(OPTIONS.MMAP_READ_OPTION)) isMmapOn = true;
+            if (opts.contains(OPTIONS.COMPACT_KEYDIR_OPTION)) isCompactKeyDir = true;
+            if (opts.contains(OPTIONS.AUTO_MERGE_OPTION)) isAutoMergeOn = true;
+            if (opts.contains(OPTIONS.GROUP_COMMIT_OPTION)) isGroupCommitOn = true;
+            if (opts.contains(OPTIONS.VALUE_CACHE_OPTION)) isValueCacheOn = true;
+            if (opts.contains(OPTIONS.COMPRESSION_OPTION)) isCompressionOn = true;
         }
         File directory = new File(directoryName);
         if (! directory.exists()) {
@@ -35,7 +86,9 @@ public class BitcaskStoreImpl implements BitcaskStore {
             }
         }
         try {
-            return new BitCaskHandle(directoryName, isReadOnly, isSyncOn);
+            return new BitCaskHandleImpl(directoryName, isReadOnly, isSyncOn, isMmapOn,
+                    isCompactKeyDir, isAutoMergeOn, isGroupCommitOn, isValueCacheOn, isCompressionOn,
+                    compressionDictionary, groupCommitMaxEntries, groupCommitWindowMicros);
         } catch (Exception e) {
             logger.error("Couldn't initialize the bitcask handler");
             throw new RuntimeException(e);
@@ -50,17 +103,38 @@ public class BitcaskStoreImpl implements BitcaskStore {
     @Override
     public String get(BitCaskHandle bitCaskHandle, String key) {
         try {
-            return bitCaskHandle.getValue(key);
+            ByteBuffer value = bitCaskHandle.getValue(encode(key));
+            return (value == null) ? null : decode(value);
         } catch (IOException e) {
             logger.error("Couldn't get value for the following key (" + key + "). [" + e + "]");
             return null;
         }
     }
 
+    @Override
+    public byte[] get(BitCaskHandle bitCaskHandle, byte[] key) {
+        try {
+            ByteBuffer value = bitCaskHandle.getValue(key);
+            if (value == null) return null;
+            byte[] bytes = new byte[value.remaining()];
+            value.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            logger.error("Couldn't get value for the following key (" + decode(ByteBuffer.wrap(key)) + "). [" + e + "]");
+            return null;
+        }
+    }
+
     @Override
     public boolean put(BitCaskHandle bitCaskHandle, String key, String value) {
+        return this.put(bitCaskHandle, encode(key), encode(value));
+    }
+
+    @Override
+    public boolean put(BitCaskHandle bitCaskHandle, byte[] key, byte[] value) {
+        CompletableFuture<Void> write = bitCaskHandle.addEntryAsync(key, value); // Throws if the handle is closed
         try {
-            bitCaskHandle.addEntry(key, value);
+            write.get();
             return true;
         } catch (Exception e) {
             logger.error("Couldn't add new entry. [" + e + "]");
@@ -68,18 +142,60 @@ public class BitcaskStoreImpl implements BitcaskStore {
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> putAsync(BitCaskHandle bitCaskHandle, String key, String value) {
+        return bitCaskHandle.addEntryAsync(encode(key), encode(value)).handle((result, e) -> {
+            if (e == null) return true;
+            logger.error("Couldn't add new entry. [" + e + "]");
+            return false;
+        });
+    }
+
+    @Override
+    public boolean putAll(BitCaskHandle bitCaskHandle, Map<String, String> entries) {
+        List<Map.Entry<byte[], byte[]>> encodedEntries = new ArrayList<>(entries.size());
+        entries.forEach((key, value) -> encodedEntries.add(Map.entry(encode(key), encode(value))));
+        return this.putAll(bitCaskHandle, encodedEntries);
+    }
+
+    @Override
+    public boolean putAll(BitCaskHandle bitCaskHandle, Collection<Map.Entry<byte[], byte[]>> entries) {
+        bitCaskHandle.ensureOpen();
+        try {
+            bitCaskHandle.addEntries(entries);
+            return true;
+        } catch (Exception e) {
+            logger.error("Couldn't add new entries. [" + e + "]");
+            return false;
+        }
+    }
+
     @Override
     public boolean delete(BitCaskHandle bitCaskHandle, String key) {
-        return this.put(bitCaskHandle, key, DELETED_VALUE);
+        return this.delete(bitCaskHandle, encode(key));
     }
 
     @Override
-    public List<String> listKeys(BitCaskHandle bitCaskHandle) {return bitCaskHandle.listKeys();}
+    public boolean delete(BitCaskHandle bitCaskHandle, byte[] key) {
+        CompletableFuture<Void> write = bitCaskHandle.addEntryAsync(key, null); // Throws if the handle is closed
+        try {
+            write.get();
+            return true;
+        } catch (Exception e) {
+            logger.error("Couldn't delete the entry. [" + e + "]");
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> listKeys(BitCaskHandle bitCaskHandle) {
+        return bitCaskHandle.listKeys().stream().map(key -> new String(key, StandardCharsets.UTF_8)).toList();
+    }
 
     @Override
     public boolean merge(BitCaskHandle bitCaskHandle) {
         try {
-            bitCaskHandle.merge();
+            bitCaskHandle.merge().get();
             return true;
         } catch (Exception e) {
             logger.error("Couldn't merge the store. [" + e + "]");
@@ -90,7 +206,7 @@ public class BitcaskStoreImpl implements BitcaskStore {
     @Override
     public boolean sync(BitCaskHandle bitCaskHandle) {
         try {
-            bitCaskHandle.flush();
+            bitCaskHandle.force();
             return true;
         }
         catch (Exception e) {
@@ -113,6 +229,46 @@ public class BitcaskStoreImpl implements BitcaskStore {
     @Override
     public void fold(BitCaskHandle bitCaskHandle,
                      BiFunction<String, String, Void> function) {
-        bitCaskHandle.fold(function);
+        this.foldBytes(bitCaskHandle, (key, value) -> function.apply(decode(key), decode(value)));
+    }
+
+    @Override
+    public void foldBytes(BitCaskHandle bitCaskHandle, BiConsumer<ByteBuffer, ByteBuffer> function) {
+        try {
+            bitCaskHandle.fold(function);
+        } catch (IOException e) {
+            logger.error("Couldn't fold the store. [" + e + "]");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void foldBytesParallel(BitCaskHandle bitCaskHandle, BiConsumer<ByteBuffer, ByteBuffer> function) {
+        try {
+            bitCaskHandle.foldParallel(function, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            logger.error("Couldn't fold the store. [" + e + "]");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //
+    // Private Methods
+    //
+
+    private static byte[] encode(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the UTF-8 string stored in the given buffer without copying it if it's backed by an array.
+     */
+    private static String decode(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining(), StandardCharsets.UTF_8);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.util.Arrays;
+
+/**
+ * Wraps the bytes of a key so it's compared by content when used as a hash map key.
+ */
+record ByteKey(byte[] bytes) {
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ByteKey key && Arrays.equals(bytes, key.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+}
@@ -0,0 +1,395 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Memory efficient key directory which doesn't allocate any object per key.
+ * The keys are striped across segments (selected by the high bits of their hashes), each segment is an
+ * open addressing hash table (linear probing on the low bits of the hashes) stored in parallel primitive
+ * arrays along with large byte array chunks holding its keys. File ids are interned and stored as small integers.
+ * Each segment is guarded by its own read-write lock, so readers of different segments don't share any
+ * lock state and the writer only blocks the readers of the segment it writes to.
+ */
+class CompactKeyDir implements KeyDir {
+
+    // Constants
+    private static final int SEGMENT_COUNT = 16; // Must be a power of two
+    private static final int SEGMENT_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+    private static final int INITIAL_SEGMENT_CAPACITY = 64; // Must be a power of two
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_KEY_CHUNK_SIZE = 4 * 1024; // The key chunks double up to the maximum size
+    private static final int KEY_CHUNK_SIZE = 1024 * 1024; // The maximum size in bytes of each key chunk
+    private static final long EMPTY = 0; // Marks a slot which was never used
+    private static final long REMOVED = -1; // Marks a slot whose key was removed
+    private static final int COMPRESSED_BIT = Integer.MIN_VALUE; // Marks a compressed value in its value size
+
+    private final FileIds fileIds;
+    private final Segment[] segments;
+
+    CompactKeyDir() {
+        this.fileIds = new FileIds();
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0 ; i < SEGMENT_COUNT ; i++) segments[i] = new Segment();
+    }
+
+    @Override
+    public KeyDirRecord get(byte[] key) {
+        int hash = hash(key);
+        Segment segment = segmentOf(hash);
+        segment.lock.readLock().lock();
+        try {
+            int slot = segment.findSlot(key, hash);
+            if (slot < 0) return null;
+            return segment.loadRecord(slot);
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(byte[] key, KeyDirRecord keyDirRecord) {
+        int hash = hash(key);
+        Segment segment = segmentOf(hash);
+        segment.lock.writeLock().lock();
+        try {
+            segment.putUnderLock(key, hash, keyDirRecord);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        int hash = hash(key);
+        Segment segment = segmentOf(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.findSlot(key, hash);
+            if (slot >= 0) segment.removeSlot(slot);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(byte[] key, KeyDirRecord expectedRecord, KeyDirRecord keyDirRecord) {
+        int hash = hash(key);
+        Segment segment = segmentOf(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.findSlot(key, hash);
+            if (slot < 0 || ! segment.recordEquals(slot, expectedRecord)) return false;
+            segment.putUnderLock(key, hash, keyDirRecord);
+            return true;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(byte[] key, KeyDirRecord expectedRecord) {
+        int hash = hash(key);
+        Segment segment = segmentOf(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.findSlot(key, hash);
+            if (slot < 0 || ! segment.recordEquals(slot, expectedRecord)) return false;
+            segment.removeSlot(slot);
+            return true;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<byte[]> keys() {
+        List<byte[]> keys = new ArrayList<>(size());
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                for (long keyReference : segment.keyReferences)
+                    if (keyReference != EMPTY && keyReference != REMOVED)
+                        keys.add(segment.loadKey(keyReference));
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Performs the given action for each key and its record while holding the read lock of the key's
+     * segment, so the action mustn't modify this key directory.
+     */
+    @Override
+    public void forEach(BiConsumer<byte[], KeyDirRecord> action) {
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                for (int slot = 0 ; slot < segment.keyReferences.length ; slot++) {
+                    long keyReference = segment.keyReferences[slot];
+                    if (keyReference == EMPTY || keyReference == REMOVED) continue;
+                    action.accept(segment.loadKey(keyReference), segment.loadRecord(slot));
+                }
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Returns the spread hash code of the given key.
+     */
+    private static int hash(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the segment of the given hash (selected by its high bits as the slots use its low bits).
+     */
+    private Segment segmentOf(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    /**
+     * Returns the value size of the given record as stored in the slots (along with the compressed bit).
+     */
+    private static int storedValueSize(KeyDirRecord keyDirRecord) {
+        return keyDirRecord.isCompressed() ? keyDirRecord.valueSize() | COMPRESSED_BIT : keyDirRecord.valueSize();
+    }
+
+    private static int keyLength(byte[] chunk, int offset) {
+        return ((chunk[offset] & 0xFF) << 24) | ((chunk[offset + 1] & 0xFF) << 16)
+                | ((chunk[offset + 2] & 0xFF) << 8) | (chunk[offset + 3] & 0xFF);
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * The interned file ids shared by the segments. The ids are appended under the lock of this table and
+     * published through a volatile array, so they're read without locking.
+     */
+    private static class FileIds {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private volatile String[] fileIds = new String[16];
+        private int size;
+
+        /**
+         * Returns the index of the given file id, interning it if it's seen for the first time.
+         */
+        synchronized int intern(String fileId) {
+            Integer index = indexes.get(fileId);
+            if (index != null) return index;
+            String[] fileIds = this.fileIds;
+            if (size == fileIds.length) fileIds = Arrays.copyOf(fileIds, 2 * size);
+            fileIds[size] = fileId;
+            this.fileIds = fileIds; // Publishes the new id
+            indexes.put(fileId, size);
+            return size++;
+        }
+
+        String get(int index) {
+            return fileIds[index];
+        }
+    }
+
+    /**
+     * A segment of the key directory: a hash table of the keys whose hashes have the segment's high bits.
+     * All the methods must be called while holding the segment's lock (the write lock for the updates).
+     */
+    private class Segment {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Hash table slots
+        private int[] hashes;
+        private long[] keyReferences; // (chunk index << 32 | offset in chunk) + 1 of the stored key
+        private int[] fileIdIndexesOfSlots;
+        private int[] valueSizes; // The value sizes (the sign bit is set for compressed values)
+        private int[] valuePositions;
+        private int[] timestamps;
+        private int size; // Number of keys
+        private int usedSlots; // Number of keys and removed slots
+
+        // Key chunks, each key is stored as its length (4 bytes) followed by its bytes
+        private List<byte[]> keyChunks;
+        private int keyChunkOffset; // The next free offset in the last key chunk
+
+        Segment() {
+            allocateSlots(INITIAL_SEGMENT_CAPACITY);
+            this.keyChunks = new ArrayList<>();
+        }
+
+        /**
+         * Inserts or replaces the record of the given key.
+         */
+        void putUnderLock(byte[] keyBytes, int hash, KeyDirRecord keyDirRecord) {
+            int slot = findSlot(keyBytes, hash);
+            if (slot < 0) {
+                if (usedSlots + 1 > hashes.length * LOAD_FACTOR) resize();
+                int mask = hashes.length - 1;
+                slot = hash & mask;
+                while (keyReferences[slot] != EMPTY && keyReferences[slot] != REMOVED) slot = (slot + 1) & mask;
+                if (keyReferences[slot] == EMPTY) usedSlots++;
+                hashes[slot] = hash;
+                keyReferences[slot] = storeKey(keyBytes);
+                size++;
+            }
+            fileIdIndexesOfSlots[slot] = fileIds.intern(keyDirRecord.fileId());
+            valueSizes[slot] = storedValueSize(keyDirRecord);
+            valuePositions[slot] = keyDirRecord.valuePosition();
+            timestamps[slot] = keyDirRecord.timestamp();
+        }
+
+        void removeSlot(int slot) {
+            keyReferences[slot] = REMOVED;
+            size--;
+        }
+
+        /**
+         * Returns the record stored in the given slot.
+         */
+        KeyDirRecord loadRecord(int slot) {
+            return new KeyDirRecord(fileIds.get(fileIdIndexesOfSlots[slot]), valueSizes[slot] & ~COMPRESSED_BIT,
+                    valuePositions[slot], timestamps[slot], (valueSizes[slot] & COMPRESSED_BIT) != 0);
+        }
+
+        /**
+         * Returns the slot of the given key or -1 if it doesn't exist.
+         */
+        int findSlot(byte[] keyBytes, int hash) {
+            int mask = hashes.length - 1;
+            for (int slot = hash & mask ; keyReferences[slot] != EMPTY ; slot = (slot + 1) & mask) {
+                if (keyReferences[slot] != REMOVED && hashes[slot] == hash && keyEquals(keyReferences[slot], keyBytes))
+                    return slot;
+            }
+            return -1;
+        }
+
+        /**
+         * Checks if the record stored in the given slot is equal to the given record.
+         */
+        boolean recordEquals(int slot, KeyDirRecord keyDirRecord) {
+            return fileIds.get(fileIdIndexesOfSlots[slot]).equals(keyDirRecord.fileId())
+                    && valueSizes[slot] == storedValueSize(keyDirRecord)
+                    && valuePositions[slot] == keyDirRecord.valuePosition()
+                    && timestamps[slot] == keyDirRecord.timestamp();
+        }
+
+        /**
+         * Returns the bytes of the key with the given reference.
+         */
+        byte[] loadKey(long keyReference) {
+            byte[] chunk = keyChunks.get((int) ((keyReference - 1) >>> 32));
+            int offset = (int) (keyReference - 1);
+            return Arrays.copyOfRange(chunk, offset + 4, offset + 4 + keyLength(chunk, offset));
+        }
+
+        /**
+         * Stores the given key bytes in the key chunks and returns its reference.
+         */
+        private long storeKey(byte[] keyBytes) {
+            int length = 4 + keyBytes.length;
+            byte[] chunk = keyChunks.isEmpty() ? null : keyChunks.get(keyChunks.size() - 1);
+            if (chunk == null || keyChunkOffset + length > chunk.length) {
+                int chunkSize = (chunk == null) ? INITIAL_KEY_CHUNK_SIZE : Math.min(KEY_CHUNK_SIZE, 2 * chunk.length);
+                chunk = new byte[Math.max(chunkSize, length)];
+                keyChunks.add(chunk);
+                keyChunkOffset = 0;
+            }
+            chunk[keyChunkOffset] = (byte) (keyBytes.length >>> 24);
+            chunk[keyChunkOffset + 1] = (byte) (keyBytes.length >>> 16);
+            chunk[keyChunkOffset + 2] = (byte) (keyBytes.length >>> 8);
+            chunk[keyChunkOffset + 3] = (byte) keyBytes.length;
+            System.arraycopy(keyBytes, 0, chunk, keyChunkOffset + 4, keyBytes.length);
+            long keyReference = (((long) (keyChunks.size() - 1) << 32) | keyChunkOffset) + 1;
+            keyChunkOffset += length;
+            return keyReference;
+        }
+
+        /**
+         * Checks if the key with the given reference is equal to the given key bytes.
+         */
+        private boolean keyEquals(long keyReference, byte[] keyBytes) {
+            byte[] chunk = keyChunks.get((int) ((keyReference - 1) >>> 32));
+            int offset = (int) (keyReference - 1);
+            return keyLength(chunk, offset) == keyBytes.length
+                    && Arrays.equals(chunk, offset + 4, offset + 4 + keyBytes.length, keyBytes, 0, keyBytes.length);
+        }
+
+        private void allocateSlots(int capacity) {
+            this.hashes = new int[capacity];
+            this.keyReferences = new long[capacity];
+            this.fileIdIndexesOfSlots = new int[capacity];
+            this.valueSizes = new int[capacity];
+            this.valuePositions = new int[capacity];
+            this.timestamps = new int[capacity];
+        }
+
+        /**
+         * Rehashes all the keys into a new table (doubling its capacity if it's half full) and
+         * compacts the key chunks dropping the bytes of the removed keys.
+         */
+        private void resize() {
+            int[] oldHashes = hashes, oldFileIdIndexes = fileIdIndexesOfSlots;
+            int[] oldValueSizes = valueSizes, oldValuePositions = valuePositions, oldTimestamps = timestamps;
+            long[] oldKeyReferences = keyReferences;
+            List<byte[]> oldKeyChunks = keyChunks;
+            int capacity = (size + 1 > oldHashes.length * LOAD_FACTOR / 2) ? oldHashes.length * 2 : oldHashes.length;
+
+            allocateSlots(capacity);
+            keyChunks = new ArrayList<>();
+            int mask = capacity - 1;
+            for (int oldSlot = 0 ; oldSlot < oldHashes.length ; oldSlot++) {
+                long oldKeyReference = oldKeyReferences[oldSlot];
+                if (oldKeyReference == EMPTY || oldKeyReference == REMOVED) continue;
+                byte[] oldChunk = oldKeyChunks.get((int) ((oldKeyReference - 1) >>> 32));
+                int oldOffset = (int) (oldKeyReference - 1);
+                byte[] keyBytes = Arrays.copyOfRange
+                        (oldChunk, oldOffset + 4, oldOffset + 4 + keyLength(oldChunk, oldOffset));
+                int slot = oldHashes[oldSlot] & mask;
+                while (keyReferences[slot] != EMPTY) slot = (slot + 1) & mask;
+                hashes[slot] = oldHashes[oldSlot];
+                keyReferences[slot] = storeKey(keyBytes);
+                fileIdIndexesOfSlots[slot] = oldFileIdIndexes[oldSlot];
+                valueSizes[slot] = oldValueSizes[oldSlot];
+                valuePositions[slot] = oldValuePositions[oldSlot];
+                timestamps[slot] = oldTimestamps[oldSlot];
+            }
+            usedSlots = size;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Defines the on-disk format of the data files and reads/writes their records.
+ * Each data file starts with a header (magic number and format version) followed by the records:
+ *      | CRC32C (4) | timestamp (4) | flags (1) | key size (4) | value size (4) | key | value |
+ * The checksum covers all the record bytes after it. A deleted key is recorded as a tombstone
+ * (the tombstone flag is set and there's no value). A value compressed by the ValueCodec has the
+ * compressed flag set (and names its codec), so compressed and raw records coexist in the same data
+ * file. Data files written before the format was versioned have no header and their records have no
+ * checksum and no flags (deletes are stored as the DELETED_VALUE value):
+ *      | timestamp (4) | key size (4) | value size (4) | key | value |
+ */
+final class DataFileFormat {
+
+    // Constants
+    static final int MAGIC = 0x42435346; // The magic number of the data files header ("BCSF")
+    static final byte VERSION = 1; // The current format version
+    static final int FILE_HEADER_SIZE = 5; // The size of the magic number and the version
+    static final int RECORD_HEADER_SIZE = 17; // The size of the record fields before the key
+    static final int LEGACY_RECORD_HEADER_SIZE = 12; // The size of the record fields before the key (no header)
+    static final byte FLAG_TOMBSTONE = 1; // Marks a record which deletes its key
+    static final byte FLAG_COMPRESSED = 2; // Marks a record whose value is compressed
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024; // The read buffer size used while scanning
+
+    private DataFileFormat() {}
+
+    /**
+     * Writes the data file header, must be called before writing any record in a new data file.
+     */
+    static void writeFileHeader(DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(MAGIC);
+        outputStream.writeByte(VERSION);
+    }
+
+    /**
+     * Writes a record in the given data file output stream.
+     */
+    static void writeRecord(DataOutputStream outputStream, int timestamp, byte[] key, byte[] value) throws IOException {
+        writeRecord(outputStream, timestamp, (byte) 0, key, value);
+    }
+
+    /**
+     * Writes a record whose value is already compressed in the given data file output stream.
+     */
+    static void writeCompressedRecord(DataOutputStream outputStream, int timestamp,
+                                      byte[] key, byte[] compressedValue) throws IOException {
+        writeRecord(outputStream, timestamp, FLAG_COMPRESSED, key, compressedValue);
+    }
+
+    /**
+     * Writes a tombstone record (header and key only) in the given data file output stream.
+     */
+    static void writeTombstone(DataOutputStream outputStream, int timestamp, byte[] key) throws IOException {
+        writeRecord(outputStream, timestamp, FLAG_TOMBSTONE, key, new byte[0]);
+    }
+
+    /**
+     * Scans the records of the given data file sequentially. The scan stops at the first
+     * corrupted or incomplete record (e.g. a torn write at the end of the file).
+     */
+    static ScanResult scan(String fileId) throws IOException {
+        List<ScannedRecord> records = new ArrayList<>();
+        File file = new File(fileId);
+        long fileLength = file.length();
+        try (DataInputStream inputStream = new DataInputStream
+                (new BufferedInputStream(new FileInputStream(file), SCAN_BUFFER_SIZE))) {
+            boolean isLegacy = fileLength < FILE_HEADER_SIZE || inputStream.readInt() != MAGIC;
+            if (! isLegacy && inputStream.readByte() != VERSION)
+                throw new IOException("Unsupported data file version: " + fileId);
+            if (isLegacy) return scanLegacy(fileId, fileLength);
+
+            long position = FILE_HEADER_SIZE;
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            CRC32C crc = new CRC32C();
+            while (position + RECORD_HEADER_SIZE <= fileLength) {
+                inputStream.readFully(header);
+                int checksum = headerBuffer.getInt(0);
+                int timestamp = headerBuffer.getInt(4);
+                byte flags = headerBuffer.get(8);
+                int keySize = headerBuffer.getInt(9);
+                int valueSize = headerBuffer.getInt(13);
+                if (keySize < 0 || valueSize < 0 || position + RECORD_HEADER_SIZE + keySize + valueSize > fileLength)
+                    break;
+                byte[] key = inputStream.readNBytes(keySize);
+                byte[] value = inputStream.readNBytes(valueSize);
+                crc.reset();
+                crc.update(header, 4, RECORD_HEADER_SIZE - 4);
+                crc.update(key);
+                crc.update(value);
+                if ((int) crc.getValue() != checksum) break;
+                records.add(new ScannedRecord(key, timestamp, valueSize, (int) (position + RECORD_HEADER_SIZE + keySize),
+                        (flags & FLAG_TOMBSTONE) != 0, (flags & FLAG_COMPRESSED) != 0));
+                position += RECORD_HEADER_SIZE + keySize + valueSize;
+            }
+            return new ScanResult(records, position, fileLength);
+        }
+    }
+
+    /**
+     * Walks the records of the given data file contents (which start at the beginning of the file) and
+     * calls the visitor for each of them. The walk stops at the first corrupted or incomplete record.
+     */
+    static void walk(ByteBuffer contents, RecordVisitor visitor) throws IOException {
+        boolean isLegacy = contents.limit() < FILE_HEADER_SIZE || contents.getInt(0) != MAGIC;
+        if (! isLegacy && contents.get(4) != VERSION) throw new IOException("Unsupported data file version");
+        int recordHeaderSize = isLegacy ? LEGACY_RECORD_HEADER_SIZE : RECORD_HEADER_SIZE;
+        int position = isLegacy ? 0 : FILE_HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        while (position + recordHeaderSize <= contents.limit()) {
+            int keySize = contents.getInt(position + recordHeaderSize - 8);
+            int valueSize = contents.getInt(position + recordHeaderSize - 4);
+            if (keySize < 0 || valueSize < 0
+                    || (long) position + recordHeaderSize + keySize + valueSize > contents.limit()) return;
+            int keyPosition = position + recordHeaderSize;
+            int valuePosition = keyPosition + keySize;
+            int recordEnd = valuePosition + valueSize;
+            boolean isDeleted, isCompressed = false;
+            if (isLegacy) {
+                isDeleted = contents.slice(valuePosition, valueSize)
+                        .equals(ByteBuffer.wrap(BitcaskStoreImpl.DELETED_VALUE_BYTES));
+            } else {
+                crc.reset();
+                if (contents.hasArray())
+                    crc.update(contents.array(), contents.arrayOffset() + position + 4, recordEnd - position - 4);
+                else crc.update(contents.slice(position + 4, recordEnd - position - 4));
+                if ((int) crc.getValue() != contents.getInt(position)) return;
+                isDeleted = (contents.get(position + 8) & FLAG_TOMBSTONE) != 0;
+                isCompressed = (contents.get(position + 8) & FLAG_COMPRESSED) != 0;
+            }
+            visitor.visit(keyPosition, keySize, valuePosition, valueSize, isDeleted, isCompressed);
+            position = recordEnd;
+        }
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Scans the records of the given data file which was written without a header and checksums.
+     */
+    private static ScanResult scanLegacy(String fileId, long fileLength) throws IOException {
+        List<ScannedRecord> records = new ArrayList<>();
+        try (DataInputStream inputStream = new DataInputStream
+                (new BufferedInputStream(new FileInputStream(fileId), SCAN_BUFFER_SIZE))) {
+            long position = 0;
+            while (position + LEGACY_RECORD_HEADER_SIZE <= fileLength) {
+                int timestamp = inputStream.readInt();
+                int keySize = inputStream.readInt();
+                int valueSize = inputStream.readInt();
+                if (keySize < 0 || valueSize < 0
+                        || position + LEGACY_RECORD_HEADER_SIZE + keySize + valueSize > fileLength) break;
+                byte[] key = inputStream.readNBytes(keySize);
+                byte[] value = inputStream.readNBytes(valueSize);
+                records.add(new ScannedRecord(key, timestamp, valueSize,
+                        (int) (position + LEGACY_RECORD_HEADER_SIZE + keySize),
+                        Arrays.equals(value, BitcaskStoreImpl.DELETED_VALUE_BYTES), false));
+                position += LEGACY_RECORD_HEADER_SIZE + keySize + valueSize;
+            }
+            return new ScanResult(records, position, fileLength);
+        }
+    }
+
+    /**
+     * Writes a record with the given flags in the given data file output stream.
+     */
+    private static void writeRecord(DataOutputStream outputStream, int timestamp, byte flags,
+                                    byte[] key, byte[] value) throws IOException {
+        byte[] header = ByteBuffer.allocate(RECORD_HEADER_SIZE)
+                .putInt(4, timestamp)
+                .put(8, flags)
+                .putInt(9, key.length)
+                .putInt(13, value.length)
+                .array();
+        CRC32C crc = new CRC32C();
+        crc.update(header, 4, RECORD_HEADER_SIZE - 4);
+        crc.update(key);
+        crc.update(value);
+        ByteBuffer.wrap(header).putInt(0, (int) crc.getValue());
+        outputStream.write(header);
+        outputStream.write(key);
+        outputStream.write(value);
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Visits the records walked in a data file (positions are relative to the start of the file).
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(int keyPosition, int keySize, int valuePosition, int valueSize, boolean isDeleted, boolean isCompressed);
+    }
+
+    /**
+     * Represents a record read while scanning a data file (or a hint file), deleted records are tombstones.
+     */
+    record ScannedRecord(byte[] key, int timestamp, int valueSize, int valuePosition,
+                         boolean isDeleted, boolean isCompressed) {}
+
+    /**
+     * Represents the result of scanning a data file, the bytes after the valid length are corrupted.
+     */
+    record ScanResult(List<ScannedRecord> records, long validLength, long fileLength) {}
+}
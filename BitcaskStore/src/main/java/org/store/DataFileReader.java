@@ -0,0 +1,174 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads values from the data files of a bitcask directory using positional reads.
+ * Keeps a bounded pool of open file channels (one per data file) and closes the least
+ * recently used channel when the pool is full. Positional reads don't modify the channel's
+ * position so the same channel is safely shared between concurrent readers, and the reads of
+ * an open file only look it up in a concurrent map (the lock is only taken to open or evict files).
+ * Sealed data files (which are never written again) can optionally be memory-mapped, their
+ * values are then served as read-only slices of the mapped buffer without copying.
+ */
+class DataFileReader {
+
+    // Constants
+    private static final long ACCESS_TIME_GRANULARITY_NANOS = 1_000_000; // Avoids writing the access time on every read
+
+    private final int maxOpenFiles; // The maximum number of files kept open (or mapped) at the same time
+    private final boolean isMmapOn; // Determines if sealed data files are memory-mapped
+    private final Map<String, DataFile> dataFiles = new ConcurrentHashMap<>(); // The open data files
+    private final Object openLock = new Object(); // Serializes the opening, eviction and closing of the data files
+
+    DataFileReader(int maxOpenFiles, boolean isMmapOn) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.isMmapOn = isMmapOn;
+    }
+
+    /**
+     * Reads (size) bytes starting from the given position in the given data file.
+     * Sealed files are served from their mapped buffer if memory mapping is on.
+     */
+    ByteBuffer read(String fileId, long position, int size, boolean isSealed) throws IOException {
+        ByteBuffer buffer = null;
+        while (true) {
+            DataFile dataFile = getDataFile(fileId, isSealed && isMmapOn);
+            if (dataFile.mappedBuffer() != null)
+                return dataFile.mappedBuffer().slice((int) position, size).asReadOnlyBuffer();
+            if (buffer == null) buffer = ByteBuffer.allocate(size);
+            try {
+                while (buffer.hasRemaining()) {
+                    int read = dataFile.channel().read(buffer, position + buffer.position());
+                    if (read < 0) throw new EOFException("Unexpected end of file " + fileId);
+                }
+                return buffer.flip();
+            } catch (ClosedChannelException e) {
+                // The channel was evicted by another reader while reading, retry using a new channel
+                if (Thread.currentThread().isInterrupted()) throw e;
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Closes the channel of the given data file (if open). Must be called before deleting the file.
+     */
+    void evict(String fileId) throws IOException {
+        DataFile dataFile;
+        synchronized (openLock) {
+            dataFile = dataFiles.remove(fileId);
+        }
+        if (dataFile != null) dataFile.close();
+    }
+
+    /**
+     * Closes all the open channels. The reader can still be used afterwards.
+     */
+    void close() throws IOException {
+        synchronized (openLock) {
+            for (DataFile dataFile : dataFiles.values()) dataFile.close();
+            dataFiles.clear();
+        }
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Returns the opened data file, opening it (and evicting the least recently used
+     * data file if needed) if it isn't already open or if it should be mapped now.
+     */
+    private DataFile getDataFile(String fileId, boolean shouldMap) throws IOException {
+        DataFile dataFile = dataFiles.get(fileId);
+        if (dataFile == null || ! dataFile.isUsable(shouldMap)) {
+            synchronized (openLock) {
+                dataFile = dataFiles.get(fileId); // Another reader may have opened it meanwhile
+                if (dataFile == null || ! dataFile.isUsable(shouldMap)) dataFile = open(fileId, dataFile, shouldMap);
+            }
+        }
+        long now = System.nanoTime();
+        if (now - dataFile.lastAccessNanos > ACCESS_TIME_GRANULARITY_NANOS) dataFile.lastAccessNanos = now;
+        return dataFile;
+    }
+
+    /**
+     * Opens the given data file replacing its previous (closed or unmapped) data file, then closes the
+     * least recently used data file if the pool is full. Must be called holding the open lock.
+     */
+    private DataFile open(String fileId, DataFile previousDataFile, boolean shouldMap) throws IOException {
+        if (previousDataFile != null) previousDataFile.close();
+        FileChannel channel = FileChannel.open(Path.of(fileId), StandardOpenOption.READ);
+        DataFile dataFile;
+        if (shouldMap) {
+            try (channel) { // The mapping stays valid after the channel is closed
+                dataFile = new DataFile(null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        else dataFile = new DataFile(channel, null);
+        dataFile.lastAccessNanos = System.nanoTime();
+        dataFiles.put(fileId, dataFile);
+        if (dataFiles.size() > maxOpenFiles) {
+            Map.Entry<String, DataFile> eldest = null;
+            for (Map.Entry<String, DataFile> entry : dataFiles.entrySet())
+                if (eldest == null || entry.getValue().lastAccessNanos < eldest.getValue().lastAccessNanos)
+                    eldest = entry;
+            dataFiles.remove(eldest.getKey());
+            eldest.getValue().close();
+        }
+        return dataFile;
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents an opened data file which is either read through its channel or its mapped buffer.
+     */
+    private static final class DataFile {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer mappedBuffer;
+        private volatile long lastAccessNanos; // Chooses the data file closed when the pool is full
+
+        DataFile(FileChannel channel, MappedByteBuffer mappedBuffer) {
+            this.channel = channel;
+            this.mappedBuffer = mappedBuffer;
+        }
+
+        FileChannel channel() {
+            return channel;
+        }
+
+        MappedByteBuffer mappedBuffer() {
+            return mappedBuffer;
+        }
+
+        /**
+         * Returns true if the data file is still open (and mapped if it should be).
+         */
+        boolean isUsable(boolean shouldMap) {
+            if (mappedBuffer != null) return true;
+            return channel.isOpen() && ! shouldMap;
+        }
+
+        void close() throws IOException {
+            if (channel != null) channel.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.store.KeyDir.KeyDirRecord;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A point-in-time snapshot of the data files which is folded by walking the data files sequentially.
+ * Each key is visited once with the record which was live when the snapshot was taken (resolved
+ * against the key-dir). The writer records the snapshot record of each key it overwrites or deletes
+ * while the snapshot is folded, so the writes done while folding aren't visible to the fold.
+ */
+class FoldSnapshot {
+
+    private final KeyDir keyDir;
+    private final ValueCodec valueCodec; // Decompresses the compressed values
+    private final Map<String, Long> fileSizes; // The size of each data file when the snapshot was taken
+    private final Map<ByteKey, KeyDirRecord> overwrittenRecords; // The snapshot records of the overwritten keys
+
+    FoldSnapshot(KeyDir keyDir, ValueCodec valueCodec, Map<String, Long> fileSizes) {
+        this.keyDir = keyDir;
+        this.valueCodec = valueCodec;
+        this.fileSizes = fileSizes;
+        this.overwrittenRecords = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the data files of the snapshot in (epoch, file ID) order.
+     */
+    List<String> fileIds() {
+        return new ArrayList<>(fileSizes.keySet());
+    }
+
+    /**
+     * Keeps the previous record of the given key which is being overwritten or deleted if it's
+     * part of the snapshot. Must be called by the writer before updating the key-dir.
+     */
+    void recordOverwrite(byte[] key, KeyDirRecord previousRecord) {
+        if (contains(previousRecord)) overwrittenRecords.putIfAbsent(new ByteKey(key), previousRecord);
+    }
+
+    /**
+     * Applies the given function on the snapshot records of the given data file. The key and value
+     * buffers are read-only views of the given fold buffer which are reused for every record.
+     */
+    void foldDataFile(String fileId, FoldBuffer buffer,
+                      BiConsumer<ByteBuffer, ByteBuffer> function) throws IOException {
+        ByteBuffer contents = buffer.read(fileId, fileSizes.get(fileId));
+        DataFileFormat.walk(contents, (keyPosition, keySize, valuePosition, valueSize, isDeleted, isCompressed) -> {
+            if (isDeleted) return;
+            byte[] key = new byte[keySize];
+            contents.get(keyPosition, key);
+            KeyDirRecord snapshotRecord = getSnapshotRecord(key);
+            if (snapshotRecord == null || snapshotRecord.valuePosition() != valuePosition
+                    || ! snapshotRecord.fileId().equals(fileId)) return; // Overwritten in the snapshot
+            ByteBuffer valueView = buffer.valueView.clear().position(valuePosition).limit(valuePosition + valueSize);
+            if (isCompressed) valueView = ByteBuffer.wrap(valueCodec.decompress(valueView)).asReadOnlyBuffer();
+            function.accept(buffer.keyView.clear().position(keyPosition).limit(keyPosition + keySize), valueView);
+        });
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Checks if the given record was written before the snapshot was taken.
+     */
+    private boolean contains(KeyDirRecord keyDirRecord) {
+        Long fileSize = fileSizes.get(keyDirRecord.fileId());
+        return fileSize != null && keyDirRecord.valuePosition() + keyDirRecord.valueSize() <= fileSize;
+    }
+
+    /**
+     * Returns the record of the given key when the snapshot was taken or null if it didn't exist.
+     */
+    private KeyDirRecord getSnapshotRecord(byte[] key) {
+        KeyDirRecord keyDirRecord = keyDir.get(key);
+        if (keyDirRecord != null && contains(keyDirRecord)) return keyDirRecord;
+        // The key was overwritten (or deleted) after the snapshot was taken or it's a new key
+        return overwrittenRecords.get(new ByteKey(key));
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Reusable buffer which holds the contents of the data file being folded and the views
+     * passed to the fold function. Each folding thread must use its own buffer.
+     */
+    static final class FoldBuffer {
+
+        private ByteBuffer contents = ByteBuffer.allocate(0);
+        private ByteBuffer keyView = contents.asReadOnlyBuffer();
+        private ByteBuffer valueView = contents.asReadOnlyBuffer();
+
+        /**
+         * Reads the first (size) bytes of the given data file, growing the buffer if needed.
+         */
+        private ByteBuffer read(String fileId, long size) throws IOException {
+            if (contents.capacity() < size) {
+                contents = ByteBuffer.allocate((int) size);
+                keyView = contents.asReadOnlyBuffer();
+                valueView = contents.asReadOnlyBuffer();
+            }
+            contents.clear().limit((int) size);
+            try (FileChannel channel = FileChannel.open(Path.of(fileId), StandardOpenOption.READ)) {
+                while (contents.hasRemaining())
+                    if (channel.read(contents, contents.position()) < 0)
+                        throw new EOFException("Unexpected end of file " + fileId);
+            }
+            return contents.flip();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the entries put concurrently by different threads into group commits.
+ * The committer thread collects the pending entries until the commit window elapses or the
+ * maximum number of entries is reached, then writes them all to the active data file followed
+ * by a single flush and force to disk and completes the futures of their callers. Shutting it
+ * down commits the entries submitted before and stops the committer thread.
+ */
+class GroupCommitter {
+
+    // Constants
+    private static final PendingEntry SHUTDOWN = new PendingEntry(null, new CompletableFuture<>()); // Stops the thread
+
+    private final BitCaskHandle bitCaskHandle;
+    private final int maxEntries; // The maximum number of entries in a single commit
+    private final long windowNanos; // The maximum time a commit waits for more entries
+    private final BlockingQueue<PendingEntry> pendingEntries;
+    private final Thread thread; // The committer thread
+    private boolean isShutdown; // Determines if the committer accepts no more entries (guarded by this)
+
+    GroupCommitter(BitCaskHandle bitCaskHandle, String rootDir, int maxEntries, long windowMicros) {
+        this.bitCaskHandle = bitCaskHandle;
+        this.maxEntries = maxEntries;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.pendingEntries = new LinkedBlockingQueue<>();
+        this.thread = new Thread(this::run, "bitcask-group-commit-" + rootDir);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Submits the given entry (a null value deletes the key) to the next commit and returns
+     * a future which completes once it's on disk.
+     */
+    CompletableFuture<Void> submit(byte[] key, byte[] value) {
+        PendingEntry pendingEntry = new PendingEntry
+                (new AbstractMap.SimpleImmutableEntry<>(key, value), new CompletableFuture<>());
+        synchronized (this) {
+            if (this.isShutdown) throw new IllegalStateException("Group committer is shut down");
+            pendingEntries.add(pendingEntry);
+        }
+        return pendingEntry.future();
+    }
+
+    /**
+     * Commits all the entries submitted so far and stops the committer thread (the entries submitted
+     * afterwards are rejected), shutting it down again only waits for the thread.
+     */
+    void shutdown() throws InterruptedException {
+        synchronized (this) {
+            if (! this.isShutdown) {
+                this.isShutdown = true;
+                pendingEntries.add(SHUTDOWN);
+            }
+        }
+        this.thread.join();
+    }
+
+    //
+    // Private Methods
+    //
+
+    /**
+     * Collects and commits the pending entries (runs on the committer thread).
+     */
+    private void run() {
+        List<PendingEntry> batch = new ArrayList<>();
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>();
+        boolean isShuttingDown = false;
+        while (! isShuttingDown) {
+            try {
+                PendingEntry pendingEntry = pendingEntries.take();
+                long deadline = System.nanoTime() + windowNanos;
+                while (pendingEntry != null) {
+                    if (pendingEntry == SHUTDOWN) { // The last pending entry, nothing is submitted after it
+                        isShuttingDown = true;
+                        break;
+                    }
+                    batch.add(pendingEntry);
+                    if (batch.size() >= maxEntries) break;
+                    pendingEntry = pendingEntries.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandonPendingEntries(batch);
+                return;
+            }
+            for (PendingEntry pendingEntry : batch) entries.add(pendingEntry.entry());
+            try {
+                if (! entries.isEmpty()) bitCaskHandle.addEntries(entries);
+                batch.forEach(pendingEntry -> pendingEntry.future().complete(null));
+            } catch (Exception e) {
+                batch.forEach(pendingEntry -> pendingEntry.future().completeExceptionally(e));
+            }
+            batch.clear();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Rejects the entries submitted afterwards and fails the futures of the given collected entries and of
+     * the entries still queued, so their callers don't wait forever once the committer thread is interrupted.
+     */
+    private void abandonPendingEntries(List<PendingEntry> batch) {
+        synchronized (this) {
+            this.isShutdown = true;
+        }
+        pendingEntries.drainTo(batch);
+        IllegalStateException exception = new IllegalStateException("Group committer was interrupted");
+        batch.forEach(pendingEntry -> pendingEntry.future().completeExceptionally(exception));
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents an entry waiting for the next commit.
+     */
+    private record PendingEntry(Map.Entry<byte[], byte[]> entry, CompletableFuture<Void> future) {}
+}
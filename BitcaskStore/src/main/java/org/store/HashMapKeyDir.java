@@ -0,0 +1,47 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Key directory which stores the records in a concurrent hash map (one record object per key).
+ * Readers never block and aren't blocked by the writer.
+ */
+class HashMapKeyDir implements KeyDir {
+
+    private final Map<ByteKey, KeyDirRecord> keyDir = new ConcurrentHashMap<>();
+
+    @Override
+    public KeyDirRecord get(byte[] key) {return keyDir.get(new ByteKey(key));}
+
+    @Override
+    public void put(byte[] key, KeyDirRecord keyDirRecord) {keyDir.put(new ByteKey(key), keyDirRecord);}
+
+    @Override
+    public void remove(byte[] key) {keyDir.remove(new ByteKey(key));}
+
+    @Override
+    public boolean replace(byte[] key, KeyDirRecord expectedRecord, KeyDirRecord keyDirRecord) {
+        return keyDir.replace(new ByteKey(key), expectedRecord, keyDirRecord);
+    }
+
+    @Override
+    public boolean remove(byte[] key, KeyDirRecord expectedRecord) {return keyDir.remove(new ByteKey(key), expectedRecord);}
+
+    @Override
+    public List<byte[]> keys() {return keyDir.keySet().stream().map(ByteKey::bytes).toList();}
+
+    @Override
+    public int size() {return keyDir.size();}
+
+    @Override
+    public void forEach(BiConsumer<byte[], KeyDirRecord> action) {
+        keyDir.forEach((key, keyDirRecord) -> action.accept(key.bytes(), keyDirRecord));
+    }
+}
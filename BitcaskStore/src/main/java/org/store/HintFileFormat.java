@@ -0,0 +1,124 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Defines the on-disk format of the hint files and reads/writes their records.
+ * A hint file starts with a header (magic number and format version) followed by a record
+ * for each key in its merged data file and ends with a CRC32C of all the bytes before it:
+ *      | timestamp (4) | flags (1) | key size (4) | value size (4) | value position (4) | key |
+ * The flags are the flags of the record in the data file (e.g. deleted or compressed).
+ * Hint files are written to a temporary file which is atomically renamed once it's complete,
+ * a hint file which is incomplete or fails its checksum is never trusted.
+ */
+final class HintFileFormat {
+
+    // Constants
+    static final int MAGIC = 0x42435348; // The magic number of the hint files header ("BCSH")
+    static final byte VERSION = 1; // The current format version
+    static final int FILE_HEADER_SIZE = 5; // The size of the magic number and the version
+    static final int CHECKSUM_SIZE = 4; // The size of the checksum at the end of the file
+    static final int RECORD_HEADER_SIZE = 17; // The size of the record fields before the key
+    static final String TEMPORARY_SUFFIX = ".tmp"; // The suffix of a hint file which is being written
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024; // The write buffer size of the hint writer
+
+    private HintFileFormat() {}
+
+    /**
+     * Reads all the records of the given hint file. The file is memory-mapped, verified and decoded in bulk.
+     * Returns null if the hint file can't be trusted (written by another version, incomplete or corrupted).
+     */
+    static List<DataFileFormat.ScannedRecord> read(String hintFileId) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Path.of(hintFileId), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int checksumPosition = buffer.limit() - CHECKSUM_SIZE;
+        if (checksumPosition < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION)
+            return null;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(0, checksumPosition));
+        if ((int) crc.getValue() != buffer.getInt(checksumPosition)) return null;
+
+        buffer.position(FILE_HEADER_SIZE).limit(checksumPosition);
+        List<DataFileFormat.ScannedRecord> records = new ArrayList<>(buffer.remaining() / (RECORD_HEADER_SIZE + 16));
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int timestamp = buffer.getInt();
+            byte flags = buffer.get();
+            int keySize = buffer.getInt();
+            int valueSize = buffer.getInt();
+            int valuePosition = buffer.getInt();
+            if (keySize < 0 || keySize > buffer.remaining()) return null;
+            byte[] key = new byte[keySize];
+            buffer.get(key);
+            records.add(new DataFileFormat.ScannedRecord(key, timestamp, valueSize, valuePosition,
+                    (flags & DataFileFormat.FLAG_TOMBSTONE) != 0, (flags & DataFileFormat.FLAG_COMPRESSED) != 0));
+        }
+        return records;
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Streams the hint records of a merged data file (while the data file is being written) through
+     * a single buffered stream to a temporary file, which is renamed to the hint file on commit.
+     */
+    static final class Writer {
+
+        private final String hintFileId;
+        private final FileOutputStream fileOutputStream;
+        private final BufferedOutputStream bufferedOutputStream;
+        private final CheckedOutputStream checkedOutputStream; // Computes the checksum of the written bytes
+        private final DataOutputStream dataOutputStream;
+
+        Writer(String hintFileId) throws IOException {
+            this.hintFileId = hintFileId;
+            this.fileOutputStream = new FileOutputStream(hintFileId + TEMPORARY_SUFFIX);
+            this.bufferedOutputStream = new BufferedOutputStream(fileOutputStream, WRITE_BUFFER_SIZE);
+            this.checkedOutputStream = new CheckedOutputStream(bufferedOutputStream, new CRC32C());
+            this.dataOutputStream = new DataOutputStream(checkedOutputStream);
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeByte(VERSION);
+        }
+
+        /**
+         * Writes a hint record.
+         */
+        void writeRecord(int timestamp, byte flags, byte[] key, int valueSize, int valuePosition) throws IOException {
+            dataOutputStream.writeInt(timestamp);
+            dataOutputStream.writeByte(flags);
+            dataOutputStream.writeInt(key.length);
+            dataOutputStream.writeInt(valueSize);
+            dataOutputStream.writeInt(valuePosition);
+            dataOutputStream.write(key);
+        }
+
+        /**
+         * Writes the checksum, forces the temporary file to disk and atomically renames it to the hint file.
+         */
+        void commit() throws IOException {
+            dataOutputStream.flush();
+            new DataOutputStream(bufferedOutputStream).writeInt((int) checkedOutputStream.getChecksum().getValue());
+            bufferedOutputStream.flush();
+            fileOutputStream.getChannel().force(false);
+            fileOutputStream.close();
+            Files.move(Path.of(hintFileId + TEMPORARY_SUFFIX), Path.of(hintFileId), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
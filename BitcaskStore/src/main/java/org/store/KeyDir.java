@@ -0,0 +1,67 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The in-memory key directory which maps each key to the location of its latest value.
+ * Keys are binary and compared by content, so the given key arrays mustn't be modified afterwards.
+ */
+interface KeyDir {
+
+    /**
+     * Returns the record of the given key or null if the key doesn't exist.
+     */
+    KeyDirRecord get(byte[] key);
+
+    /**
+     * Inserts or replaces the record of the given key.
+     */
+    void put(byte[] key, KeyDirRecord keyDirRecord);
+
+    /**
+     * Removes the given key (if it exists).
+     */
+    void remove(byte[] key);
+
+    /**
+     * Atomically replaces the record of the given key only if it's currently mapped to the expected record.
+     * Returns true if the record was replaced.
+     */
+    boolean replace(byte[] key, KeyDirRecord expectedRecord, KeyDirRecord keyDirRecord);
+
+    /**
+     * Atomically removes the given key only if it's currently mapped to the expected record.
+     * Returns true if the key was removed.
+     */
+    boolean remove(byte[] key, KeyDirRecord expectedRecord);
+
+    /**
+     * Returns a list which contains all the keys.
+     */
+    List<byte[]> keys();
+
+    /**
+     * Returns the number of keys.
+     */
+    int size();
+
+    /**
+     * Performs the given action for each key and its record.
+     */
+    void forEach(BiConsumer<byte[], KeyDirRecord> action);
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents a record for the in-memory key directory, the value size is the size
+     * stored in the data file (compressed values have to be decompressed after reading)
+     */
+    record KeyDirRecord(String fileId, int valueSize, int valuePosition, int timestamp, boolean isCompressed){}
+}
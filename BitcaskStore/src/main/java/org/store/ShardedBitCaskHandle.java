@@ -0,0 +1,190 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+/**
+ * Handler for a sharded bitcask directory which hashes the keys across independent shards.
+ * Each shard is a bitcask directory (shard_<index>) with its own handle, so it has its own key-dir,
+ * active data file, writer lock and merges. Writes of keys in different shards run in parallel
+ * and a key always belongs to the same shard, so the number of shards of a directory is fixed.
+ */
+public final class ShardedBitCaskHandle implements BitCaskHandle {
+
+    private final BitCaskHandle[] shards;
+
+    ShardedBitCaskHandle(BitCaskHandle[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Returns the number of shards.
+     */
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns the index of the shard which the given key belongs to. The hash code is mixed (murmur3's
+     * finalizer) unlike the key-dir's spread, so the keys of a shard still spread over all its key-dir slots.
+     */
+    public int getShardIndex(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        return Math.floorMod(hash ^ (hash >>> 16), this.shards.length);
+    }
+
+    @Override
+    public ByteBuffer getValue(byte[] key) throws IOException {
+        return shardOf(key).getValue(key);
+    }
+
+    @Override
+    public void addEntry(byte[] key, byte[] value) throws IOException {
+        shardOf(key).addEntry(key, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> addEntryAsync(byte[] key, byte[] value) {
+        return shardOf(key).addEntryAsync(key, value);
+    }
+
+    /**
+     * Adds the given entries in their shards, the entries of each shard are added as a single commit.
+     */
+    @Override
+    public void addEntries(Collection<Map.Entry<byte[], byte[]>> entries) throws IOException {
+        List<List<Map.Entry<byte[], byte[]>>> shardEntries = new ArrayList<>(this.shards.length);
+        for (int i = 0 ; i < this.shards.length ; i++) shardEntries.add(new ArrayList<>());
+        for (Map.Entry<byte[], byte[]> entry : entries) shardEntries.get(getShardIndex(entry.getKey())).add(entry);
+        for (int i = 0 ; i < this.shards.length ; i++)
+            if (! shardEntries.get(i).isEmpty()) this.shards[i].addEntries(shardEntries.get(i));
+    }
+
+    @Override
+    public List<byte[]> listKeys() {
+        List<byte[]> keys = new ArrayList<>();
+        for (BitCaskHandle shard : this.shards) keys.addAll(shard.listKeys());
+        return keys;
+    }
+
+    /**
+     * Folds the shards one after the other, each shard is folded as of the moment its fold starts.
+     */
+    @Override
+    public void fold(BiConsumer<ByteBuffer, ByteBuffer> function) throws IOException {
+        for (BitCaskHandle shard : this.shards) shard.fold(function);
+    }
+
+    @Override
+    public void foldParallel(BiConsumer<ByteBuffer, ByteBuffer> function, ForkJoinPool pool) throws IOException {
+        for (BitCaskHandle shard : this.shards) shard.foldParallel(function, pool);
+    }
+
+    /**
+     * Merges all the shards concurrently (each shard on its own merge thread) and
+     * returns the combined merge statistics of the shards once they're all done.
+     */
+    @Override
+    public CompletableFuture<MergeStats> merge() {
+        List<CompletableFuture<MergeStats>> merges = Arrays.stream(this.shards).map(BitCaskHandle::merge).toList();
+        return CompletableFuture.allOf(merges.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> combine(merges.stream().map(CompletableFuture::join).toList()));
+    }
+
+    /**
+     * Returns the combined statistics of the merges done by the shards.
+     */
+    @Override
+    public MergeStats getMergeStats() {
+        return combine(Arrays.stream(this.shards).map(BitCaskHandle::getMergeStats).toList());
+    }
+
+    /**
+     * Returns the combined statistics of the value caches of the shards.
+     */
+    @Override
+    public CacheStats getCacheStats() {
+        long hits = 0, misses = 0, evictions = 0, cachedBytes = 0;
+        int cachedValues = 0;
+        for (BitCaskHandle shard : this.shards) {
+            CacheStats cacheStats = shard.getCacheStats();
+            hits += cacheStats.hits();
+            misses += cacheStats.misses();
+            evictions += cacheStats.evictions();
+            cachedValues += cacheStats.cachedValues();
+            cachedBytes += cacheStats.cachedBytes();
+        }
+        return new CacheStats(hits, misses, evictions, cachedValues, cachedBytes);
+    }
+
+    @Override
+    public void ensureOpen() {
+        for (BitCaskHandle shard : this.shards) shard.ensureOpen();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (BitCaskHandle shard : this.shards) shard.flush();
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (BitCaskHandle shard : this.shards) shard.force();
+    }
+
+    /**
+     * Closes all the shards, a shard which fails to close doesn't prevent closing the others.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (BitCaskHandle shard : this.shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+                else exception.addSuppressed(e);
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    //
+    // Private Methods
+    //
+
+    private BitCaskHandle shardOf(byte[] key) {
+        return this.shards[getShardIndex(key)];
+    }
+
+    /**
+     * Combines the merge statistics of the shards (the last duration is the longest last duration).
+     */
+    private static MergeStats combine(List<MergeStats> shardMergeStats) {
+        long mergeCount = 0, lastDurationMillis = 0, totalDurationMillis = 0;
+        long lastReclaimedBytes = 0, totalReclaimedBytes = 0;
+        for (MergeStats mergeStats : shardMergeStats) {
+            mergeCount += mergeStats.mergeCount();
+            lastDurationMillis = Math.max(lastDurationMillis, mergeStats.lastDurationMillis());
+            totalDurationMillis += mergeStats.totalDurationMillis();
+            lastReclaimedBytes += mergeStats.lastReclaimedBytes();
+            totalReclaimedBytes += mergeStats.totalReclaimedBytes();
+        }
+        return new MergeStats(mergeCount, lastDurationMillis, totalDurationMillis,
+                lastReclaimedBytes, totalReclaimedBytes);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Bitcask store which hashes the keys across a fixed number of independent bitcask directories
+ * (shards) inside the given directory, so threads writing keys of different shards don't wait
+ * for each other. The handles it opens are { @link ShardedBitCaskHandle }s and all the other
+ * operations are the same as { @link BitcaskStoreImpl }. The options apply to every shard.
+ */
+public class ShardedBitcaskStore extends BitcaskStoreImpl {
+
+    private static final Logger logger = LogManager.getLogger(ShardedBitcaskStore.class);
+
+    private final int shardCount;
+
+    public ShardedBitcaskStore(int shardCount) {
+        this(shardCount, DEFAULT_GROUP_COMMIT_MAX_ENTRIES, DEFAULT_GROUP_COMMIT_WINDOW_MICROS);
+    }
+
+    /**
+     * Creates a sharded store whose shards use the given group commit limits (see { @link BitcaskStoreImpl }).
+     */
+    public ShardedBitcaskStore(int shardCount, int groupCommitMaxEntries, long groupCommitWindowMicros) {
+        this(shardCount, groupCommitMaxEntries, groupCommitWindowMicros, null);
+    }
+
+    /**
+     * Creates a sharded store whose shards use the given group commit limits and compression dictionary
+     * (see { @link BitcaskStoreImpl }).
+     */
+    public ShardedBitcaskStore(int shardCount, int groupCommitMaxEntries, long groupCommitWindowMicros,
+                               byte[] compressionDictionary) {
+        super(groupCommitMaxEntries, groupCommitWindowMicros, compressionDictionary);
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be positive");
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Opens a new or existing sharded Bitcask datastore, an existing datastore must
+     * have been created with the same number of shards.
+     */
+    @Override
+    public ShardedBitCaskHandle open(String directoryName, List<OPTIONS> opts) {
+        File directory = new File(directoryName);
+        if (directory.exists()) {
+            long existingShardCount = Arrays.stream(Objects.requireNonNull(directory.list()))
+                    .filter(fileName -> fileName.startsWith("shard_"))
+                    .count();
+            if (existingShardCount != 0 && existingShardCount != this.shardCount) {
+                logger.error("Directory (" + directoryName + ") has " + existingShardCount
+                        + " shards instead of " + this.shardCount);
+                throw new RuntimeException("Shard count mismatch");
+            }
+        }
+        BitCaskHandle[] shards = new BitCaskHandle[this.shardCount];
+        try {
+            for (int i = 0 ; i < this.shardCount ; i++) shards[i] = super.open(directoryName + "/shard_" + i, opts);
+        } catch (RuntimeException e) {
+            for (BitCaskHandle shard : shards) if (shard != null) close(shard);
+            throw e;
+        }
+        return new ShardedBitCaskHandle(shards);
+    }
+
+    @Override
+    public ShardedBitCaskHandle open(String directoryName) {
+        return open(directoryName, null);
+    }
+}
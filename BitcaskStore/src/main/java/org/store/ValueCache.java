@@ -0,0 +1,116 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.store.KeyDir.KeyDirRecord;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of the values read from the data files, bounded by the total size
+ * in bytes of the cached keys and values. Each value is cached along with the key-dir record it was
+ * read from, a cached value is only served if the key-dir still points to the same record so a
+ * stale value (e.g. cached by a reader which raced with a writer) is never returned.
+ */
+class ValueCache {
+
+    // Constants
+    private static final int ENTRY_OVERHEAD = 64; // Approximate size in bytes of the bookkeeping of an entry
+
+    private final long maxBytes; // The maximum total size of the cached entries
+    private final LinkedHashMap<ByteKey, CachedValue> cachedValues; // Cached values in access order
+    private long usedBytes;
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ValueCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.cachedValues = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached value of the given key if it was read from the given record, otherwise null.
+     */
+    byte[] get(byte[] key, KeyDirRecord keyDirRecord) {
+        CachedValue cachedValue;
+        synchronized (this) {
+            cachedValue = cachedValues.get(new ByteKey(key));
+        }
+        if (cachedValue != null && cachedValue.keyDirRecord().equals(keyDirRecord)) {
+            hits.increment();
+            return cachedValue.value();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the given value which was read from the given record, evicting the least recently
+     * used values if the cache is full. Values larger than the whole cache aren't cached.
+     */
+    synchronized void put(byte[] key, KeyDirRecord keyDirRecord, byte[] value) {
+        long size = entrySize(key, value);
+        if (size > maxBytes) return;
+        CachedValue previousValue = cachedValues.put(new ByteKey(key), new CachedValue(keyDirRecord, value));
+        if (previousValue != null) usedBytes -= entrySize(key, previousValue.value());
+        usedBytes += size;
+        Iterator<Map.Entry<ByteKey, CachedValue>> iterator = cachedValues.entrySet().iterator();
+        while (usedBytes > maxBytes) {
+            Map.Entry<ByteKey, CachedValue> eldest = iterator.next();
+            usedBytes -= entrySize(eldest.getKey().bytes(), eldest.getValue().value());
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes the cached value of the given key (if any), called whenever the key is written or deleted.
+     */
+    synchronized void invalidate(byte[] key) {
+        CachedValue cachedValue = cachedValues.remove(new ByteKey(key));
+        if (cachedValue != null) usedBytes -= entrySize(key, cachedValue.value());
+    }
+
+    /**
+     * Points the cached value of the given key to the record it was moved to by a merge,
+     * only if it's still cached from the record it was moved from.
+     */
+    synchronized void rekey(byte[] key, KeyDirRecord sealedRecord, KeyDirRecord mergedRecord) {
+        ByteKey byteKey = new ByteKey(key);
+        CachedValue cachedValue = cachedValues.get(byteKey);
+        if (cachedValue != null && cachedValue.keyDirRecord().equals(sealedRecord))
+            cachedValues.put(byteKey, new CachedValue(mergedRecord, cachedValue.value()));
+    }
+
+    /**
+     * Returns the statistics of this cache.
+     */
+    synchronized BitCaskHandle.CacheStats getStats() {
+        return new BitCaskHandle.CacheStats(hits.sum(), misses.sum(), evictions.sum(), cachedValues.size(), usedBytes);
+    }
+
+    //
+    // Private Methods
+    //
+
+    private static long entrySize(byte[] key, byte[] value) {
+        return ENTRY_OVERHEAD + key.length + value.length;
+    }
+
+    //
+    // Nested Types
+    //
+
+    /**
+     * Represents a cached value and the key-dir record it was read from.
+     */
+    private record CachedValue(KeyDirRecord keyDirRecord, byte[] value) {}
+}
@@ -0,0 +1,169 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the values stored in the data files (records with the compressed flag).
+ * Values are deflated (fastest level), optionally with a preset dictionary given by the store's user (e.g.
+ * the field names of the stored messages), so even a single small message compresses well. Each compressed
+ * value names its codec (and its dictionary), so values written with different codecs or dictionaries coexist:
+ *      | codec (1) | original value size (4) | dictionary ID (4, dictionary codec only) | deflated value |
+ * The dictionary ID is the CRC32C of the dictionary, and each dictionary used to write values is kept in its
+ * own file of the bitcask directory (dictionary_<ID>) which is never deleted, so changing the dictionary
+ * never makes the values written with the previous dictionaries unreadable.
+ * The deflaters and inflaters are reused per thread.
+ */
+final class ValueCodec {
+
+    // Constants
+    static final int MIN_COMPRESSED_SIZE = 32; // Smaller values are always stored raw
+    static final String DICTIONARY_FILE_PREFIX = "dictionary_"; // Followed by the dictionary ID (hexadecimal)
+    private static final byte CODEC_DEFLATE = 1; // Deflated without a dictionary
+    private static final byte CODEC_DEFLATE_DICTIONARY = 2; // Deflated with the dictionary of the given ID
+    private static final int HEADER_SIZE = 5; // The size of the codec and the original value size
+    private static final int DICTIONARY_ID_SIZE = 4;
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> compressionBuffers = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final Map<Integer, byte[]> dictionaries; // The dictionaries of the bitcask directory by ID
+    private final byte[] dictionary; // The dictionary of the written values (null if none)
+    private final int dictionaryId;
+    private final ThreadLocal<Deflater> deflaters;
+
+    /**
+     * Creates the codec of the given bitcask directory, loading its dictionaries. The values are written with
+     * the given dictionary (null for none) which is stored in the directory first unless the handle is a reader.
+     */
+    ValueCodec(String rootDir, byte[] dictionary, boolean isReadOnly) throws IOException {
+        this.dictionaries = new HashMap<>();
+        for (String fileName : Objects.requireNonNull(new File(rootDir).list())) {
+            if (! fileName.startsWith(DICTIONARY_FILE_PREFIX) || fileName.endsWith(".tmp")) continue;
+            byte[] storedDictionary = Files.readAllBytes(Path.of(rootDir, fileName));
+            dictionaries.put(getDictionaryId(storedDictionary), storedDictionary);
+        }
+        this.dictionary = dictionary;
+        this.dictionaryId = (dictionary == null) ? 0 : getDictionaryId(dictionary);
+        if (dictionary != null && ! isReadOnly && ! dictionaries.containsKey(dictionaryId)) {
+            writeDictionary(rootDir, dictionary, dictionaryId);
+            dictionaries.put(dictionaryId, dictionary);
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            if (this.dictionary != null) deflater.setDictionary(this.dictionary);
+            return deflater;
+        });
+    }
+
+    /**
+     * Returns the compressed form of the given value or null if compressing it doesn't save any space.
+     */
+    byte[] compress(byte[] value) {
+        if (value.length < MIN_COMPRESSED_SIZE) return null;
+        Deflater deflater = deflaters.get();
+        byte[] buffer = compressionBuffers.get();
+        if (buffer.length < value.length) {
+            buffer = new byte[Integer.highestOneBit(value.length) << 1];
+            compressionBuffers.set(buffer);
+        }
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            // The compressed value must be smaller than the raw value, otherwise it's stored raw
+            int compressedSize = HEADER_SIZE + ((dictionary != null) ? DICTIONARY_ID_SIZE : 0);
+            while (! deflater.finished() && compressedSize < value.length)
+                compressedSize += deflater.deflate(buffer, compressedSize, value.length - compressedSize);
+            if (! deflater.finished()) return null;
+            ByteBuffer header = ByteBuffer.wrap(buffer);
+            header.put(0, (dictionary != null) ? CODEC_DEFLATE_DICTIONARY : CODEC_DEFLATE).putInt(1, value.length);
+            if (dictionary != null) header.putInt(HEADER_SIZE, dictionaryId);
+            return Arrays.copyOf(buffer, compressedSize);
+        } finally {
+            deflater.reset();
+            if (dictionary != null) deflater.setDictionary(dictionary);
+        }
+    }
+
+    /**
+     * Decompresses the given compressed value (the remaining bytes of the buffer).
+     */
+    byte[] decompress(ByteBuffer compressedValue) {
+        Inflater inflater = inflaters.get();
+        try {
+            int position = compressedValue.position();
+            byte codec = compressedValue.get(position);
+            byte[] value = new byte[compressedValue.getInt(position + 1)];
+            int dataPosition = position + HEADER_SIZE;
+            if (codec == CODEC_DEFLATE_DICTIONARY) {
+                int valueDictionaryId = compressedValue.getInt(dataPosition);
+                byte[] valueDictionary = dictionaries.get(valueDictionaryId);
+                if (valueDictionary == null) throw new DataFormatException
+                        ("Missing dictionary (" + Integer.toHexString(valueDictionaryId) + ")");
+                inflater.setDictionary(valueDictionary);
+                dataPosition += DICTIONARY_ID_SIZE;
+            }
+            else if (codec != CODEC_DEFLATE) throw new DataFormatException("Unknown codec (" + codec + ")");
+            inflater.setInput(compressedValue.duplicate().position(dataPosition));
+            int size = 0;
+            while (size < value.length) {
+                int inflated = inflater.inflate(value, size, value.length - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new DataFormatException("Truncated compressed value");
+                size += inflated;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupted compressed value", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    //
+    // Private Methods
+    //
+
+    private static int getDictionaryId(byte[] dictionary) {
+        CRC32C crc = new CRC32C();
+        crc.update(dictionary);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the given dictionary to its file in the given directory: written to a temporary file which is
+     * forced to disk and atomically renamed, then the directory is forced so the file survives a crash
+     * before any value is written with the dictionary.
+     */
+    private static void writeDictionary(String rootDir, byte[] dictionary, int dictionaryId) throws IOException {
+        Path dictionaryPath = Path.of(rootDir, DICTIONARY_FILE_PREFIX + Integer.toHexString(dictionaryId));
+        Path temporaryPath = Path.of(dictionaryPath + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(dictionary));
+            channel.force(true);
+        }
+        Files.move(temporaryPath, dictionaryPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(Path.of(rootDir), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.api.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the compressed values stay readable whatever the codec or dictionary they were written with.
+ */
+class CompressionTest {
+
+    // Constants
+    private static final List<BitcaskStore.OPTIONS> OPTIONS = List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION,
+            BitcaskStore.OPTIONS.COMPRESSION_OPTION);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void valuesStayReadableOnceTheDictionaryChanges() {
+        byte[] firstDictionary = "{\"station_id\":,\"battery_status\":\"low\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] secondDictionary = "{\"station_id\":,\"battery_status\":\"high\"}".getBytes(StandardCharsets.UTF_8);
+        write(new BitcaskStoreImpl(), "deflate_");
+        write(new BitcaskStoreImpl(8, 0, firstDictionary), "first_");
+        write(new BitcaskStoreImpl(8, 0, secondDictionary), "second_");
+
+        BitcaskStore store = new BitcaskStoreImpl(); // Reads with no dictionary of its own
+        BitCaskHandle handle = store.open(directory.toString(), OPTIONS);
+        assertTrue(store.merge(handle)); // Merges copy the compressed values as they are
+        assertTrue(store.close(handle));
+        BitCaskHandle reader = store.open(directory.toString());
+        for (String prefix : List.of("deflate_", "first_", "second_"))
+            for (int i = 0 ; i < 100 ; i++) assertEquals(message(i), store.get(reader, prefix + i));
+        assertTrue(store.close(reader));
+    }
+
+    //
+    // Private Methods
+    //
+
+    private void write(BitcaskStore store, String keyPrefix) {
+        BitCaskHandle handle = store.open(directory.toString(), OPTIONS);
+        for (int i = 0 ; i < 100 ; i++) assertTrue(store.put(handle, keyPrefix + i, message(i)));
+        assertTrue(store.close(handle));
+    }
+
+    private static String message(int index) {
+        return "{\"station_id\":" + index + ",\"battery_status\":\"" + ((index % 2 == 0) ? "low" : "high")
+                + "\",\"weather\":{\"humidity\":" + (index % 100) + "}}";
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.api.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stresses a handle with concurrent writers, readers and merges: each writer puts increasing versions of
+ * its own keys while the readers check that every value they get is a version of the right key which
+ * is never older than the versions they got before, and the merges rewrite the sealed data files.
+ */
+class ConcurrencyStressTest {
+
+    // Constants
+    private static final int WRITER_COUNT = 2; // Each writer owns the keys whose index modulo the count is its index
+    private static final int READER_COUNT = 4;
+    private static final int KEY_COUNT = 2000;
+    private static final int VERSIONS = 100; // The versions written for each key
+    private static final String PADDING = "x".repeat(100); // Makes the writes roll many data files over
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void concurrentPutsGetsAndMergesWithHashMapKeyDir() throws InterruptedException {
+        stress(List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+    }
+
+    @Test
+    void concurrentPutsGetsAndMergesWithCompactKeyDir() throws InterruptedException {
+        stress(List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION, BitcaskStore.OPTIONS.COMPACT_KEYDIR_OPTION));
+    }
+
+    //
+    // Private Methods
+    //
+
+    private void stress(List<BitcaskStore.OPTIONS> options) throws InterruptedException {
+        BitcaskStore store = new BitcaskStoreImpl();
+        BitCaskHandle handle = store.open(directory.toString(), options);
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean isWriting = new AtomicBoolean(true);
+        AtomicInteger mergeCount = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>(), others = new ArrayList<>();
+
+        for (int writer = 0 ; writer < WRITER_COUNT ; writer++) {
+            int writerIndex = writer;
+            writers.add(new Thread(() -> {
+                for (int version = 1 ; version <= VERSIONS ; version++)
+                    for (int i = writerIndex ; i < KEY_COUNT ; i += WRITER_COUNT)
+                        if (! store.put(handle, key(i), value(i, version))) errors.add("Couldn't put " + key(i));
+            }));
+        }
+        for (int reader = 0 ; reader < READER_COUNT ; reader++) {
+            others.add(new Thread(() -> {
+                int[] seenVersions = new int[KEY_COUNT];
+                while (isWriting.get()) {
+                    int i = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+                    String value = store.get(handle, key(i));
+                    if (value == null) {
+                        if (seenVersions[i] > 0) errors.add("Lost " + key(i) + " after version " + seenVersions[i]);
+                        continue;
+                    }
+                    int version = versionOf(value);
+                    if (! value.equals(value(i, version))) errors.add("Got (" + value + ") for " + key(i));
+                    else if (version < seenVersions[i])
+                        errors.add("Got version " + version + " of " + key(i) + " after version " + seenVersions[i]);
+                    else seenVersions[i] = version;
+                }
+            }));
+        }
+        others.add(new Thread(() -> {
+            while (isWriting.get()) {
+                if (store.merge(handle)) mergeCount.incrementAndGet();
+                else errors.add("Couldn't merge the store");
+            }
+        }));
+
+        others.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread thread : writers) thread.join();
+        isWriting.set(false);
+        for (Thread thread : others) thread.join();
+
+        assertTrue(errors.isEmpty(), () -> errors.size() + " errors, first: " + errors.peek());
+        assertTrue(mergeCount.get() > 0);
+        assertLatestVersions(store, handle);
+        assertTrue(store.close(handle));
+
+        // The latest versions survive reopening the store (from the merged files and their hint files)
+        BitCaskHandle reopenedHandle = store.open(directory.toString(), options);
+        assertLatestVersions(store, reopenedHandle);
+        assertTrue(store.close(reopenedHandle));
+    }
+
+    private static void assertLatestVersions(BitcaskStore store, BitCaskHandle handle) {
+        assertEquals(KEY_COUNT, store.listKeys(handle).size());
+        for (int i = 0 ; i < KEY_COUNT ; i++) assertEquals(value(i, VERSIONS), store.get(handle, key(i)));
+    }
+
+    private static String key(int index) {
+        return "station_" + index;
+    }
+
+    private static String value(int index, int version) {
+        return key(index) + ":" + version + ":" + PADDING;
+    }
+
+    private static int versionOf(String value) {
+        String[] fields = value.split(":");
+        return (fields.length == 3) ? Integer.parseInt(fields[1]) : -1;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Created by Amr Momtaz.
+ */
+
+package org.store;
+
+import org.api.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that closing a handle stops its background threads and that a closed handle rejects the operations.
+ */
+class HandleCloseTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void operationsFailOnceTheHandleIsClosed() {
+        BitcaskStore store = new BitcaskStoreImpl();
+        BitCaskHandle handle = store.open(directory.toString(), List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION));
+        assertTrue(store.put(handle, "station_1", "status"));
+        assertTrue(store.close(handle));
+        String[] files = Objects.requireNonNull(new File(directory.toString()).list());
+
+        assertThrows(IllegalStateException.class, () -> store.put(handle, "station_2", "status"));
+        assertThrows(IllegalStateException.class, () -> store.putAll(handle, Map.of("station_2", "status")));
+        assertThrows(IllegalStateException.class, () -> store.delete(handle, "station_1"));
+        assertThrows(IllegalStateException.class, () -> store.get(handle, "station_1"));
+        assertTrue(store.close(handle)); // Closing again does nothing
+        assertEquals(files.length, Objects.requireNonNull(new File(directory.toString()).list()).length);
+    }
+
+    @Test
+    void closeWaitsForTheRunningMergeAndStopsTheThreads() throws InterruptedException {
+        BitcaskStore store = new BitcaskStoreImpl();
+        BitCaskHandle handle = store.open(directory.toString(), List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION,
+                BitcaskStore.OPTIONS.GROUP_COMMIT_OPTION));
+        byte[] value = "x".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        for (int version = 0 ; version < 50 ; version++) { // Rolls several data files over so the merge has work to do
+            List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>();
+            for (int i = 0 ; i < 100 ; i++) entries.add(Map.entry(("station_" + i).getBytes(StandardCharsets.UTF_8), value));
+            assertTrue(store.putAll(handle, entries));
+        }
+        CompletableFuture<BitCaskHandle.MergeStats> merge = handle.merge();
+        assertTrue(store.close(handle));
+
+        assertTrue(merge.isDone());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (! thread.getName().endsWith(directory.toString())) continue;
+            thread.join(1000);
+            assertFalse(thread.isAlive(), "The thread (" + thread.getName() + ") outlived its handle");
+        }
+    }
+
+    @Test
+    void closeCommitsThePendingEntriesAndStopsTheCommitter() {
+        BitcaskStore store = new BitcaskStoreImpl(8, 100_000); // Long windows keep the entries pending
+        List<BitcaskStore.OPTIONS> options = List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION,
+                BitcaskStore.OPTIONS.GROUP_COMMIT_OPTION);
+        BitCaskHandle handle = store.open(directory.toString(), options);
+        List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+        for (int i = 0 ; i < 100 ; i++) puts.add(store.putAsync(handle, "station_" + i, "status_" + i));
+        assertTrue(store.close(handle));
+
+        for (CompletableFuture<Boolean> put : puts) assertTrue(put.isDone() && put.join());
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            assertFalse(thread.getName().endsWith(directory.toString()), "The thread (" + thread.getName() + ") outlived its handle");
+        BitCaskHandle reopenedHandle = store.open(directory.toString());
+        for (int i = 0 ; i < 100 ; i++) assertEquals("status_" + i, store.get(reopenedHandle, "station_" + i));
+        assertTrue(store.close(reopenedHandle));
+    }
+
+    @Test
+    void interruptingTheCommitterFailsThePendingEntries() throws InterruptedException {
+        BitcaskStore store = new BitcaskStoreImpl(1_000_000, 10_000_000); // The entries stay pending for 10 seconds
+        BitCaskHandle handle = store.open(directory.toString(), List.of(BitcaskStore.OPTIONS.READ_WRITE_OPTION,
+                BitcaskStore.OPTIONS.GROUP_COMMIT_OPTION));
+        List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+        for (int i = 0 ; i < 100 ; i++) puts.add(store.putAsync(handle, "station_" + i, "status_" + i));
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("bitcask-group-commit-" + directory)) thread.interrupt();
+
+        for (CompletableFuture<Boolean> put : puts) assertFalse(put.orTimeout(5, TimeUnit.SECONDS).join());
+        assertThrows(IllegalStateException.class, () -> store.putAsync(handle, "station_100", "status_100"));
+        assertTrue(store.close(handle));
+    }
+}
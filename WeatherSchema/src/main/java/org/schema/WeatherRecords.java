@@ -0,0 +1,90 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.schema;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The schema of the weather records (AvroSchema.avsc) shared by the weather stations (their Avro binary
+ * wire format) and the base central station (decoding the messages and writing the parquet records), along
+ * with the conversions between the stations' JSON messages and the flat records. The fields are accessed by
+ * their (cached) positions in the schema.
+ */
+public final class WeatherRecords {
+
+    // Constants
+    public static final Schema AVRO_SCHEMA;
+    // The preset compression dictionary of the JSON messages (their field names and common values)
+    public static final byte[] JSON_DICTIONARY = ("{\"weather\":{\"humidity\":,\"temperature\":,\"wind_speed\":}," +
+            "\"battery_status\":\"low\",\"battery_status\":\"medium\",\"battery_status\":\"high\"," +
+            "\"status_timestamp\":17,\"s_no\":,\"station_id\":").getBytes(StandardCharsets.UTF_8);
+
+    // Positions of the fields in the Avro schema
+    private static final int STATION_ID_POSITION;
+    private static final int SEQUENCE_NUMBER_POSITION;
+    private static final int BATTERY_STATUS_POSITION;
+    private static final int TIMESTAMP_POSITION;
+    private static final int HUMIDITY_POSITION;
+    private static final int TEMPERATURE_POSITION;
+    private static final int WIND_SPEED_POSITION;
+
+    static {
+        try (InputStream schemaStream = WeatherRecords.class.getClassLoader().getResourceAsStream("AvroSchema.avsc")) {
+            if (schemaStream == null) throw new IOException("Couldn't find the AVRO Schema");
+            AVRO_SCHEMA = new Schema.Parser().parse(schemaStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        STATION_ID_POSITION = AVRO_SCHEMA.getField("Station_ID").pos();
+        SEQUENCE_NUMBER_POSITION = AVRO_SCHEMA.getField("Sequence_Number").pos();
+        BATTERY_STATUS_POSITION = AVRO_SCHEMA.getField("Battery_Status").pos();
+        TIMESTAMP_POSITION = AVRO_SCHEMA.getField("Timestamp").pos();
+        HUMIDITY_POSITION = AVRO_SCHEMA.getField("Humidity").pos();
+        TEMPERATURE_POSITION = AVRO_SCHEMA.getField("Temperature").pos();
+        WIND_SPEED_POSITION = AVRO_SCHEMA.getField("Wind_Speed").pos();
+    }
+
+    private WeatherRecords() {}
+
+    /**
+     * Flattens the given station message into an Avro record (renaming its fields).
+     */
+    public static GenericRecord toAvroRecord(JSONObject message) {
+        JSONObject weatherObject = message.getJSONObject("weather");
+        GenericData.Record avroRecord = new GenericData.Record(AVRO_SCHEMA);
+        avroRecord.put(STATION_ID_POSITION, message.getLong("station_id"));
+        avroRecord.put(SEQUENCE_NUMBER_POSITION, message.getLong("s_no"));
+        avroRecord.put(BATTERY_STATUS_POSITION, message.getString("battery_status"));
+        avroRecord.put(TIMESTAMP_POSITION, message.getLong("status_timestamp"));
+        avroRecord.put(HUMIDITY_POSITION, weatherObject.getInt("humidity"));
+        avroRecord.put(TEMPERATURE_POSITION, weatherObject.getInt("temperature"));
+        avroRecord.put(WIND_SPEED_POSITION, weatherObject.getInt("wind_speed"));
+        return avroRecord;
+    }
+
+    /**
+     * Returns the station message (as sent by the stations in JSON) of the given Avro record.
+     */
+    public static JSONObject toJson(GenericRecord avroRecord) {
+        JSONObject weatherObject = new JSONObject()
+                .put("humidity", avroRecord.get(HUMIDITY_POSITION))
+                .put("temperature", avroRecord.get(TEMPERATURE_POSITION))
+                .put("wind_speed", avroRecord.get(WIND_SPEED_POSITION));
+        return new JSONObject()
+                .put("station_id", avroRecord.get(STATION_ID_POSITION))
+                .put("s_no", avroRecord.get(SEQUENCE_NUMBER_POSITION))
+                .put("battery_status", avroRecord.get(BATTERY_STATUS_POSITION).toString()) // A Utf8 once decoded
+                .put("status_timestamp", avroRecord.get(TIMESTAMP_POSITION))
+                .put("weather", weatherObject);
+    }
+}
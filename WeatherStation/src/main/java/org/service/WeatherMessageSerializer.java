@@ -0,0 +1,77 @@
+/*
+ * Created by Amr Momtaz.
+ */
+
+package org.service;
+
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.schema.WeatherRecords;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Kafka serializer of the weather messages which writes them in the wire format configured by
+ * the (message.format) producer property:
+ *   * json: the message's JSON text (default).
+ *   * avro: the message flattened and encoded in Avro binary against the shared weather schema (the schema
+ *     of the parquet records of the base central station), which is a few times smaller than the JSON text.
+ * The format is written in the (message_format) header of each record so the base central station
+ * decodes both formats.
+ */
+public final class WeatherMessageSerializer implements Serializer<JSONObject> {
+
+    // Constants
+    public static final String MESSAGE_FORMAT_CONFIG = "message.format";
+    public static final String MESSAGE_FORMAT_HEADER = "message_format";
+    public static final String JSON_FORMAT = "json";
+    public static final String AVRO_FORMAT = "avro";
+    private static final Logger logger = LogManager.getLogger(WeatherMessageSerializer.class);
+    private static final int AVRO_MESSAGE_SIZE_HINT = 32; // Initial size of the output buffer of each message
+
+    private final DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(WeatherRecords.AVRO_SCHEMA);
+    private String messageFormat = JSON_FORMAT;
+    private byte[] messageFormatBytes = JSON_FORMAT.getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object messageFormat = configs.get(MESSAGE_FORMAT_CONFIG);
+        if (messageFormat == null) return;
+        if (! JSON_FORMAT.equals(messageFormat) && ! AVRO_FORMAT.equals(messageFormat))
+            throw new IllegalArgumentException("Invalid message format (" + messageFormat + ")");
+        this.messageFormat = (String) messageFormat;
+        this.messageFormatBytes = this.messageFormat.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, JSONObject message) {
+        headers.add(MESSAGE_FORMAT_HEADER, messageFormatBytes);
+        return serialize(topic, message);
+    }
+
+    @Override
+    public byte[] serialize(String topic, JSONObject message) {
+        if (message == null) return null;
+        if (JSON_FORMAT.equals(messageFormat)) return message.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(AVRO_MESSAGE_SIZE_HINT);
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(outputStream, null);
+            datumWriter.write(WeatherRecords.toAvroRecord(message), encoder);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            logger.error("Couldn't encode the weather message in Avro binary");
+            throw new RuntimeException(e);
+        }
+    }
+}
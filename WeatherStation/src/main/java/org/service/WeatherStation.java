@@ -25,6 +25,8 @@ public final class WeatherStation {
     private static final Integer COOLDOWN = 1000; // Weather station cool-down in ms
     private static final String KAFKA_SERVER_CONFIGS = "localhost:9092";
     private static final String KAFKA_TOPIC = "weather_data_topic";
+    private static final String MESSAGE_FORMAT // The wire format of the messages (json or avro)
+            = System.getenv().getOrDefault("MESSAGE_FORMAT", WeatherMessageSerializer.JSON_FORMAT);
     private static final Properties kafkaProperties;
     private static final Random random = new Random(System.currentTimeMillis());
     private static final Logger logger = LogManager.getLogger(WeatherStation.class);
@@ -49,11 +51,12 @@ public final class WeatherStation {
         kafkaProperties = new Properties();
         kafkaProperties.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, KAFKA_SERVER_CONFIGS);
         kafkaProperties.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        kafkaProperties.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        kafkaProperties.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, WeatherMessageSerializer.class.getName());
+        kafkaProperties.setProperty(WeatherMessageSerializer.MESSAGE_FORMAT_CONFIG, MESSAGE_FORMAT);
     }
 
     public static void main(String[] args) throws InterruptedException {
-        try (KafkaProducer<String, String> kafkaProducer = new KafkaProducer<>(kafkaProperties)) {
+        try (KafkaProducer<String, JSONObject> kafkaProducer = new KafkaProducer<>(kafkaProperties)) {
             while (true) {
                 JSONObject apiResponse = WeatherDataServiceConnector.getWeatherData();
                 JSONObject filteredMessage = ContentsFilter.filterMessage(apiResponse);
@@ -64,7 +67,9 @@ public final class WeatherStation {
                 // Randomly drop a message with rate 10%
                 if (random.nextDouble() >= 0.1) {
                     logger.info("Weather message is fed to Kafka service.");
-                    kafkaProducer.send(new ProducerRecord<>(KAFKA_TOPIC, enrichedMessage.toString()));
+                    // Keyed by the station ID so all the messages of a station are consumed from the same partition
+                    kafkaProducer.send(new ProducerRecord<>
+                            (KAFKA_TOPIC, String.valueOf(stationID), enrichedMessage));
                 } else logger.info("Weather message is dropped.");
                 updateState();
                 Thread.sleep(COOLDOWN);